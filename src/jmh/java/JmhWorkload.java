@@ -0,0 +1,164 @@
+import benchmarks.Workload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Implements benchmarked operations. Synthetic datasets are generated by TraceGenerator from a random automaton
+ * and written to a temporary file, so that they are parsed like any other input file.
+ */
+public class JmhWorkload implements Workload {
+    private static final int SYNTHETIC_SAMPLES = 200_000;
+    private static final int SYNTHETIC_STATES = 40;
+
+    private ModelType modelType;
+    private String path;
+    private Path syntheticFile = null;
+
+    private FptaNode root;
+    private FptaNode child;
+    private Alphabet alphabet;
+    private HoeffdingCompatibilityChecker checker;
+    private DenseHoeffdingCompatibilityChecker denseChecker;
+    private AlergiaRun run;
+    private DistributionIndex rootIndex;
+    private DistributionIndex childIndex;
+    private int commonInput;
+    private CompiledModel compiledModel;
+    // all samples of the input file as [length, symbols...] records
+    private int[] samples;
+    private int samplesSize = 0;
+    private double[] logLikelihoods;
+
+    @Override
+    public void setUp(String dataset) throws IOException {
+        String[] parts = dataset.split(":", 2);
+        modelType = ModelType.valueOf(parts[0].toUpperCase());
+        if (parts[1].equals("synthetic")) {
+            syntheticFile = Files.createTempFile("jalergia-" + parts[0], ".txt");
+            writeSynthetic(syntheticFile, modelType, new SplittableRandom(42));
+            path = syntheticFile.toString();
+        } else {
+            path = parts[1];
+        }
+
+        FptaBuilder builder = FptaNode.constructFPTA(path, modelType);
+        root = builder.getRoot();
+        alphabet = builder.getAlphabet();
+        child = root.immutableChildren.nodeAt(0);
+        checker = new HoeffdingCompatibilityChecker(0.05);
+        denseChecker = new DenseHoeffdingCompatibilityChecker(0.05);
+        run = new AlergiaRun(root, alphabet, modelType, checker, null);
+
+        rootIndex = root.getDistributionIndex(alphabet);
+        childIndex = child.getDistributionIndex(alphabet);
+        commonInput = childIndex.inputs[0];
+        for (int i = 0; i < childIndex.inputCount(); i++) {
+            if (java.util.Arrays.binarySearch(rootIndex.inputs, childIndex.inputs[i]) >= 0) {
+                commonInput = childIndex.inputs[i];
+                break;
+            }
+        }
+
+        compiledModel = new CompiledModel(new AlergiaRun(root, alphabet, modelType, checker, null).learn());
+        List<List<String>> data = Parser.parseFile(path);
+        int length = 0;
+        for (List<String> sample : data)
+            length += sample.size() + 1;
+        samples = new int[length];
+        for (List<String> sample : data) {
+            samples[samplesSize++] = sample.size();
+            for (String symbol : sample)
+                samples[samplesSize++] = compiledModel.getSymbolId(symbol);
+        }
+        logLikelihoods = new double[data.size()];
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        if (syntheticFile != null)
+            Files.deleteIfExists(syntheticFile);
+    }
+
+    @Override
+    public Object parse() {
+        return Parser.parseFile(path);
+    }
+
+    @Override
+    public Object construct() {
+        return FptaNode.constructFPTA(path, modelType).getRoot();
+    }
+
+    @Override
+    public boolean compatibilityTest() {
+        return run.compatibilityTest(root, child);
+    }
+
+    @Override
+    public boolean hoeffdingBound() {
+        int a = java.util.Arrays.binarySearch(rootIndex.inputs, commonInput);
+        int b = java.util.Arrays.binarySearch(childIndex.inputs, commonInput);
+        return checker.hoeffdingBound(rootIndex, Math.max(a, 0), childIndex, Math.max(b, 0));
+    }
+
+    @Override
+    public boolean denseHoeffdingBound() {
+        int a = java.util.Arrays.binarySearch(rootIndex.inputs, commonInput);
+        int b = java.util.Arrays.binarySearch(childIndex.inputs, commonInput);
+        return denseChecker.hoeffdingBound(rootIndex, Math.max(a, 0), childIndex, Math.max(b, 0),
+                alphabet.getOutputSlots());
+    }
+
+    @Override
+    public void prepareFold() {
+        run.initialize();
+    }
+
+    @Override
+    public Object fold() {
+        run.fold(root, child);
+        return run;
+    }
+
+    @Override
+    public Object pipeline() {
+        FptaBuilder builder = FptaNode.constructFPTA(path, modelType);
+        return new AlergiaRun(builder.getRoot(), builder.getAlphabet(), modelType, checker, null).learn();
+    }
+
+    @Override
+    public Object score() {
+        compiledModel.logLikelihoods(samples, samplesSize, logLikelihoods);
+        return logLikelihoods;
+    }
+
+    /**
+     * Writes samples of a random automaton with SYNTHETIC_STATES states, where each state has two equally likely
+     * successors for each input.
+     */
+    private static void writeSynthetic(Path file, ModelType modelType, SplittableRandom random) throws IOException {
+        DotModel model = new DotModel(modelType);
+        int inputs = modelType == ModelType.MC ? 1 : 4;
+        for (int s = 0; s < SYNTHETIC_STATES; s++) {
+            model.stateLabels.add(modelType != ModelType.SMM ? "o" + random.nextInt(6) : "q" + s);
+            model.transitions.add(new ArrayList<>());
+        }
+        for (int s = 0; s < SYNTHETIC_STATES; s++) {
+            for (int i = 0; i < inputs; i++) {
+                for (int k = 0; k < 2; k++) {
+                    int target = random.nextInt(SYNTHETIC_STATES);
+                    String output = modelType != ModelType.SMM ? model.stateLabels.get(target) : "o" + random.nextInt(6);
+                    model.transitions.get(s).add(new DotModel.Transition(target,
+                            modelType == ModelType.MC ? null : "i" + i, output, 0.5));
+                }
+            }
+        }
+        new TraceGenerator(model).generate(file.toString(), SYNTHETIC_SAMPLES, 12, random.nextLong(), 1, false);
+    }
+}
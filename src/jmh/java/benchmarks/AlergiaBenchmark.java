@@ -0,0 +1,102 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the main phases of jAlergia on bundled sample files and on larger synthetic datasets.
+ * Run with "gradle jmh", which reports throughput and allocation rate (gc profiler). A subset of benchmarks is
+ * selected with e.g. "gradle jmh -PjmhArgs='AlergiaBenchmark.fold -p dataset=mdp:synthetic'".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AlergiaBenchmark {
+
+    @Param({"mdp:sampleFiles/mdpData_size_20.txt", "smm:sampleFiles/smmData_size_30.txt",
+            "mc:sampleFiles/mcData_size_10.txt", "mdp:synthetic", "smm:synthetic", "mc:synthetic"})
+    public String dataset;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.create();
+        workload.setUp(dataset);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return workload.parse();
+    }
+
+    @Benchmark
+    public Object construct() {
+        return workload.construct();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean compatibilityTest() {
+        return workload.compatibilityTest();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean hoeffdingBound() {
+        return workload.hoeffdingBound();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean denseHoeffdingBound() {
+        return workload.denseHoeffdingBound();
+    }
+
+    /**
+     * Fold modifies the mutable tree, which is reset before each invocation.
+     */
+    @State(Scope.Thread)
+    public static class FoldState {
+        @Setup(Level.Invocation)
+        public void reset(AlergiaBenchmark benchmark) {
+            benchmark.workload.prepareFold();
+        }
+    }
+
+    @Benchmark
+    public Object fold(FoldState state) {
+        return workload.fold();
+    }
+
+    @Benchmark
+    public Object pipeline() {
+        return workload.pipeline();
+    }
+
+    @Benchmark
+    public Object score() {
+        return workload.score();
+    }
+}
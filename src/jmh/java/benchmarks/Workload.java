@@ -0,0 +1,73 @@
+package benchmarks;
+
+/**
+ * Operations of jAlergia measured by the benchmarks.
+ * jAlergia classes are in the default package, which JMH benchmarks cannot be placed in or import from, so the
+ * operations are implemented by JmhWorkload in the default package and accessed through this interface.
+ */
+public interface Workload {
+
+    /**
+     * Loads the dataset and constructs everything needed by the operations.
+     * @param dataset "modelType:path" of an input file, or "modelType:synthetic" for a generated dataset
+     */
+    void setUp(String dataset) throws Exception;
+
+    /**
+     * Removes files created by setUp.
+     */
+    void tearDown() throws Exception;
+
+    /**
+     * Parses the input file with Parser.parseFile.
+     */
+    Object parse();
+
+    /**
+     * Constructs the FPTA from the input file.
+     */
+    Object construct();
+
+    /**
+     * Tests compatibility of the root with its lexicographically minimal child.
+     */
+    boolean compatibilityTest();
+
+    /**
+     * Compares output distributions of the root and its lexicographically minimal child for their first
+     * common input.
+     */
+    boolean hoeffdingBound();
+
+    /**
+     * Same comparison as hoeffdingBound, with DenseHoeffdingCompatibilityChecker.
+     */
+    boolean denseHoeffdingBound();
+
+    /**
+     * Resets the mutable tree before fold.
+     */
+    void prepareFold();
+
+    /**
+     * Folds the subtree of the lexicographically minimal child of the root into the root.
+     */
+    Object fold();
+
+    /**
+     * Constructs the FPTA from the input file and learns the model.
+     */
+    Object pipeline();
+
+    /**
+     * Computes log-likelihoods of all samples of the input file with the compiled learned model.
+     */
+    Object score();
+
+    /**
+     * @return instance of JmhWorkload
+     */
+    static Workload create() throws ReflectiveOperationException {
+        return (Workload) Class.forName("JmhWorkload").getDeclaredConstructor().newInstance();
+    }
+}
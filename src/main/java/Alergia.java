@@ -1,4 +1,11 @@
 import java.util.*;
+import java.io.IOException;
+import java.io.FileWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Markov Decision Process
@@ -12,17 +19,21 @@ enum ModelType{
 }
 
 /**
- * Pair class used for iterative folding and compatibility test
+ * Result of a single run of an epsilon sweep.
  */
-class Pair<T, U> {
-    public final T first;
-    public final U second;
-
-    public Pair(T first, U second) {
-        this.first = first;
-        this.second = second;
+class SweepResult {
+    public final double epsilon;
+    public final LearnedModel model;
+    // in seconds
+    public final double learningTime;
+    public final LearningMetrics metrics;
+
+    public SweepResult(double epsilon, LearnedModel model, double learningTime, LearningMetrics metrics) {
+        this.epsilon = epsilon;
+        this.model = model;
+        this.learningTime = learningTime;
+        this.metrics = metrics;
     }
-
 }
 
 /**
@@ -32,10 +43,23 @@ class Pair<T, U> {
  */
 public class Alergia {
 
-    private FptaNode mutableTree = null;
+    private FptaNode immutableTree = null;
+    private Alphabet alphabet = null;
     private CompatibilityChecker compatibilityChecker;
     private ModelType modelType;
     private final String saveLocation;
+    private int parallelism = 1;
+    private String snapshotLocation = null;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int minCount = 1;
+    private long nodeBudget = 0;
+    private long sortMemory = 0;
+    private int cacheSize = 0;
+    // builder of the current tree, whose out-of-core store is closed once another tree is constructed
+    private FptaBuilder treeBuilder = null;
+    private LearningMetrics metrics = null;
+    private MetricsListener metricsListener = null;
+    private long metricsInterval = 0;
 
     /**
      * Default constructor. Model will be saved to "jAlergiaModel.dot".
@@ -52,13 +76,93 @@ public class Alergia {
         saveLocation = saveFile;
     }
 
+    /**
+     * Sets the number of threads used to construct the FPTA and to test compatibility of a blue node with red
+     * nodes. In an epsilon sweep, it is the number of runs executed concurrently.
+     * Tests are run speculatively in parallel and the lexicographically minimal compatible red node is chosen,
+     * so the learned model does not depend on the parallelism level.
+     * When parallelism is greater than 1, the CompatibilityChecker must be thread-safe.
+     * @param parallelism number of threads, 1 by default
+     */
+    public void setParallelism(int parallelism){
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the file to which the constructed FPTA is saved. Snapshot can be passed as input file to later runs,
+     * e.g. with a different epsilon, to skip the FPTA construction.
+     * @param snapshotLocation path of the snapshot file, or null to not save the FPTA
+     */
+    public void setSnapshotLocation(String snapshotLocation){
+        this.snapshotLocation = snapshotLocation;
+    }
+
+    /**
+     * Bounds the size of the FPTA. Samples are truncated at maxDepth, and subtrees of nodes reached fewer than
+     * minCount times are collapsed into leaves. With a node budget, collapsing is also done during construction,
+     * which bounds memory but makes frequencies approximate. Not applied to FPTA snapshots.
+     * @param maxDepth maximum depth of the tree, Integer.MAX_VALUE by default
+     * @param minCount minimum frequency of a node whose children are kept, 1 by default
+     * @param nodeBudget number of nodes at which the tree is collapsed during construction, 0 by default
+     */
+    public void setFptaLimits(int maxDepth, int minCount, long nodeBudget){
+        if (maxDepth < 1 || minCount < 1 || nodeBudget < 0)
+            throw new IllegalArgumentException("FPTA limits must be positive.");
+        this.maxDepth = maxDepth;
+        this.minCount = minCount;
+        this.nodeBudget = nodeBudget;
+    }
+
+    /**
+     * Enables sorting and deduplication of samples read from input files, see FptaNode.constructFPTA.
+     * @param sortMemory number of bytes of samples sorted in memory, 0 by default to disable sorting
+     */
+    public void setSortMemory(long sortMemory){
+        if (sortMemory < 0)
+            throw new IllegalArgumentException("Sort memory must not be negative.");
+        this.sortMemory = sortMemory;
+    }
+
+    /**
+     * Keeps the FPTA of input files in memory-mapped temporary files instead of the heap, so that its size is
+     * bounded by the disk. Samples are sorted as with setSortMemory. Files are deleted when another tree is
+     * constructed, or on exit.
+     * @param cacheSize number of nodes whose children are kept on the heap while learning, 0 by default to keep
+     * the tree on the heap
+     */
+    public void setOutOfCore(int cacheSize){
+        if (cacheSize < 0)
+            throw new IllegalArgumentException("Cache size must not be negative.");
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Sets the listener receiving metrics of learning runs.
+     * @param listener listener, or null to not report metrics
+     * @param intervalMillis interval in which metrics are reported during learning, 0 to report only final metrics
+     */
+    public void setMetricsListener(MetricsListener listener, long intervalMillis){
+        this.metricsListener = listener;
+        this.metricsInterval = intervalMillis;
+    }
+
+    /**
+     * @return metrics of the FPTA construction and of the last learning run, or null if nothing was run yet
+     */
+    public LearningMetrics getMetrics(){
+        return metrics;
+    }
+
     /**
      * Runs the Alergia passive learning algorithm.
      * @param data input data
      * @param type model type
      * @param eps epsilon value for HoeffdingCompatibilityChecker
+     * @return learned model, which is also saved to "<saveFile>.dot"
      */
-    public void runAlergia(List<List<String>> data, ModelType type, double eps){
+    public LearnedModel runAlergia(List<List<String>> data, ModelType type, double eps){
         // automatic epsilon computation
         if(eps == -1){
             int denominator = 0;
@@ -71,7 +175,7 @@ public class Alergia {
         modelType = type;
 
         constructFPTA(data);
-        runMainAlergiaLoop();
+        return runMainAlergiaLoop();
     }
 
     /**
@@ -79,212 +183,229 @@ public class Alergia {
      * @param data input data
      * @param type model type
      * @param compChecker instance of CompatibilityChecker implementation
+     * @return learned model, which is also saved to "<saveFile>.dot"
      */
-    public void runAlergia(List<List<String>> data, ModelType type, CompatibilityChecker compChecker){
+    public LearnedModel runAlergia(List<List<String>> data, ModelType type, CompatibilityChecker compChecker){
         compatibilityChecker = compChecker;
         modelType = type;
 
         constructFPTA(data);
-        runMainAlergiaLoop();
+        return runMainAlergiaLoop();
     }
 
     /**
-     * Construct mutable and immutable trees. If optimization is set to MEMORY, blue tree is null.
-     * @param data red and blue tree
+     * Runs the Alergia passive learning algorithm. FPTA is constructed while reading the input file,
+     * or loaded if the input file is an FPTA snapshot.
+     * @param path path to input file
+     * @param type model type
+     * @param eps epsilon value for HoeffdingCompatibilityChecker
+     * @return learned model, which is also saved to "<saveFile>.dot"
      */
-    private void constructFPTA(List<List<String>> data){
-        double start = System.currentTimeMillis();
-        mutableTree = FptaNode.constructFPTA(data, modelType);
-        double timeElapsed = System.currentTimeMillis() - start;
-        System.out.println("FPTA construction time   : " + String.format("%.2f", timeElapsed / 1000) + " seconds.");
-        data = null; // to ensure GC will collect it sooner than later
+    public LearnedModel runAlergia(String path, ModelType type, double eps){
+        modelType = type;
+
+        long sampleSizeSum = constructFPTA(path);
+        // automatic epsilon computation
+        if(eps == -1)
+            eps = 10. / sampleSizeSum;
+        compatibilityChecker = new HoeffdingCompatibilityChecker(eps);
 
+        return runMainAlergiaLoop();
     }
 
     /**
-     * Runs the main loop of the algorithm.
+     * Runs the Alergia passive learning algorithm. FPTA is constructed while reading the input file,
+     * or loaded if the input file is an FPTA snapshot.
+     * @param path path to input file
+     * @param type model type
+     * @param compChecker instance of CompatibilityChecker implementation
+     * @return learned model, which is also saved to "<saveFile>.dot"
      */
-    private void runMainAlergiaLoop() {
-        double start = System.currentTimeMillis();
-
-        List<FptaNode> red = new ArrayList<>();
-        red.add(mutableTree);
-        List<FptaNode> blue = new ArrayList<>(mutableTree.getSuccessors());
-
-        while (!blue.isEmpty()){
-            FptaNode lexMinBlue = getLexMin(blue);
-            boolean merged = false;
-
-            for (FptaNode r : red){
-                if(compatibilityTest(r, lexMinBlue)){
-                    merge(r, lexMinBlue);
-                    merged = true;
-                    break;
-                }
-            }
-
-            if(!merged)
-                insertInLexMinSort(red, lexMinBlue);
-
-            List<Integer> prefixLength = new ArrayList<>();
-            for (FptaNode node : red)
-                prefixLength.add(node.getPrefix().size());
-
-            assert prefixLength.stream().allMatch(i -> i.equals(prefixLength.get(0)) ||
-                    i >= prefixLength.get(prefixLength.indexOf(i) - 1)) : "The list is not sorted";
-
-            blue.clear();
-
-            for(FptaNode r:red){
-                for (FptaNode s : r.getSuccessors()){
-                    if(!red.contains(s))
-                        blue.add(s);
-                }
-            }
-
-        }
+    public LearnedModel runAlergia(String path, ModelType type, CompatibilityChecker compChecker){
+        compatibilityChecker = compChecker;
+        modelType = type;
 
-        normalize(red);
-        Parser.saveModel(red, modelType, saveLocation);
-        double timeElapsed = System.currentTimeMillis() - start;
-        System.out.println("Alergia learning time    : " + String.format("%.2f", timeElapsed / 1000) + " seconds.");
-        System.out.println("Alergia learned " + red.size() + " state automaton.");
+        constructFPTA(path);
+        return runMainAlergiaLoop();
     }
 
     /**
-     * Redirects lexMinBlue to r and folds their children
-     * @param r red node
-     * @param lexMinBlue blue node
+     * Runs the Alergia passive learning algorithm once for each epsilon. FPTA is constructed only once and shared
+     * by all runs, which are executed concurrently on up to parallelism threads. Each model is saved to
+     * "<saveFile>_eps_<epsilon>.dot", and a summary of all runs to "<saveFile>_sweep.csv".
+     * @param data input data
+     * @param type model type
+     * @param epsilons epsilon values for HoeffdingCompatibilityChecker, -1 for automatic computation
+     * @return results of all runs, in the order of epsilons
      */
-    private void merge(FptaNode r, FptaNode lexMinBlue) {
-        List<String> prefixLeadingToState = new ArrayList<>(lexMinBlue.getPrefix());
-        String lastIo = prefixLeadingToState.remove(prefixLeadingToState.size() - 1);
-
-        FptaNode toUpdate = mutableTree;
-        for (String p : prefixLeadingToState)
-            toUpdate = toUpdate.children.get(p);
-
-        toUpdate.children.put(lastIo, r);
+    public List<SweepResult> runAlergiaSweep(List<List<String>> data, ModelType type, List<Double> epsilons){
+        modelType = type;
+        long sampleSizeSum = constructFPTA(data);
+        return runSweep(epsilons, sampleSizeSum);
+    }
 
-        fold(r, lexMinBlue);
+    /**
+     * Runs the Alergia passive learning algorithm once for each epsilon. FPTA is constructed only once, or loaded
+     * if the input file is an FPTA snapshot, and shared by all runs, which are executed concurrently on up to
+     * parallelism threads. Each model is saved to "<saveFile>_eps_<epsilon>.dot", and a summary of all runs to
+     * "<saveFile>_sweep.csv".
+     * @param path path to input file
+     * @param type model type
+     * @param epsilons epsilon values for HoeffdingCompatibilityChecker, -1 for automatic computation
+     * @return results of all runs, in the order of epsilons
+     */
+    public List<SweepResult> runAlergiaSweep(String path, ModelType type, List<Double> epsilons){
+        modelType = type;
+        long sampleSizeSum = constructFPTA(path);
+        return runSweep(epsilons, sampleSizeSum);
     }
 
     /**
-     * Folds blue subtree in red subtree.
-     * @param redSubtreeRoot red node
-     * @param blueSubtreeRoot blue node in red tree
+     * Runs the main loop for each epsilon on the constructed tree, and saves learned models and the summary.
+     * @param epsilons epsilon values, -1 for automatic computation
+     * @param sampleSizeSum sum of (sample size - 1), used for automatic epsilon computation
+     * @return results of all runs, in the order of epsilons
      */
-    private void fold(FptaNode redSubtreeRoot, FptaNode blueSubtreeRoot) {
-        Queue<Pair<FptaNode, FptaNode>> queue = new LinkedList<>();
-        queue.add(new Pair<>(redSubtreeRoot, blueSubtreeRoot));
-
-        while (!queue.isEmpty()) {
-            Pair<FptaNode, FptaNode> fptaPair = queue.poll();
-            FptaNode red = fptaPair.first;
-            FptaNode blue = fptaPair.second;
-
-            for (String io : blue.children.keySet()){
-                if (red.children.containsKey(io)) {
-                    red.inputFrequency.put(io, red.inputFrequency.get(io) + blue.inputFrequency.get(io));
-                    queue.add(new Pair<>(red.children.get(io), blue.children.get(io)));
-                } else {
-                    red.children.put(io, blue.children.get(io));
-                    red.inputFrequency.put(io, blue.inputFrequency.get(io));
-                }
+    private List<SweepResult> runSweep(List<Double> epsilons, long sampleSizeSum){
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, epsilons.size()));
+        List<SweepResult> results = new ArrayList<>();
+        try {
+            List<Future<SweepResult>> futures = new ArrayList<>();
+            for (double e : epsilons) {
+                double eps = e == -1 ? 10. / sampleSizeSum : e;
+                futures.add(executor.submit(() -> {
+                    double start = System.currentTimeMillis();
+                    AlergiaRun run = new AlergiaRun(immutableTree, alphabet, modelType,
+                            new HoeffdingCompatibilityChecker(eps), null);
+                    LearningMetrics runMetrics = new LearningMetrics();
+                    runMetrics.recordFpta(metrics.getFptaNodeCount(), metrics.constructionSeconds);
+                    run.setMetrics(runMetrics);
+                    if (metricsListener != null)
+                        run.setListener(metricsListener, metricsInterval);
+                    LearnedModel model = run.learn();
+                    Parser.saveModel(model, saveLocation + "_eps_" + eps);
+                    double timeElapsed = System.currentTimeMillis() - start;
+                    return new SweepResult(eps, model, timeElapsed / 1000, runMetrics);
+                }));
             }
+            for (Future<SweepResult> future : futures)
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Epsilon sweep was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AlergiaException)
+                throw (AlergiaException) e.getCause();
+            throw new IllegalStateException("Epsilon sweep failed.", e.getCause());
+        } finally {
+            executor.shutdown();
         }
 
+        try (FileWriter fw = new FileWriter(saveLocation + "_sweep.csv")) {
+            fw.write("epsilon,states,learningTime\n");
+            for (SweepResult result : results)
+                fw.write(result.epsilon + "," + result.model.getStateCount() + "," + result.learningTime + "\n");
+        } catch (IOException e) {
+            throw new AlergiaException("Sweep summary could not be saved.", e);
+        }
+        for (SweepResult result : results)
+            System.out.println("eps " + result.epsilon + " : learned " + result.model.getStateCount() +
+                    " state automaton in " + String.format("%.2f", result.learningTime) + " seconds.");
+        return results;
     }
 
     /**
-     * Check compatibility between nodes and their children.
-     * @param redSubtree Fpta node
-     * @param blueSubtree Fpta node
-     * @return True if a and b are compatible
+     * Construct the immutable tree. Mutable tree is an overlay over it, which records only modified nodes.
+     * @param data input data
+     * @return sum of (sample size - 1) over all samples, used for automatic epsilon computation
      */
-    private boolean compatibilityTest(FptaNode redSubtree, FptaNode blueSubtree){
-        Queue<Pair<FptaNode, FptaNode>> queue = new LinkedList<>();
-        queue.add(new Pair<>(redSubtree, blueSubtree));
-
-        while (!queue.isEmpty()) {
-            Pair<FptaNode, FptaNode> nodesUnderTest = queue.poll();
-            FptaNode a = nodesUnderTest.first;
-            FptaNode b = nodesUnderTest.second;
-
-            if (modelType != ModelType.SMM && !a.output.equals(b.output))
-                return false;
-
-            if (a.immutableChildren == null || b.immutableChildren == null)
-                continue;
-
-            if (compatibilityChecker.areStatesDifferent(a, b, modelType))
-                return false;
-
-            Set<String> intersection = new HashSet<>(a.immutableChildren.keySet());
-            intersection.retainAll(b.immutableChildren.keySet());
-            for (String child : intersection)
-                queue.add(new Pair<>(a.immutableChildren.get(child), b.immutableChildren.get(child)));
-        }
+    private long constructFPTA(List<List<String>> data){
+        double start = System.currentTimeMillis();
+        FptaBuilder builder = FptaNode.constructFPTA(data, createBuilder());
+        immutableTree = builder.getRoot();
+        alphabet = builder.getAlphabet();
+        double timeElapsed = System.currentTimeMillis() - start;
+        System.out.println("FPTA construction time   : " + String.format("%.2f", timeElapsed / 1000) + " seconds.");
+        metrics = new LearningMetrics();
+        metrics.recordFpta(builder.getNodeCount(), timeElapsed / 1000);
+        data = null; // to ensure GC will collect it sooner than later
+        saveSnapshot(builder);
+        return builder.getSampleSizeSum();
 
-        return true;
     }
 
     /**
-     * Insert blue in redList while preserving lexicographically minimal order.
-     * @param redList list of automaton states/red nodes
-     * @param blue blue node
+     * Construct the immutable tree directly from the input file.
+     * @param path path to input file
+     * @return sum of (sample size - 1) over all samples, used for automatic epsilon computation
      */
-    private void insertInLexMinSort(List<FptaNode> redList, FptaNode blue){
-        int index = 0;
-        for (FptaNode r : redList){
-            if(r.compareTo(blue) < 0) {
-                index += 1;
-            }
-            else{
-                break;
-            }
+    private long constructFPTA(String path){
+        double start = System.currentTimeMillis();
+        FptaBuilder builder = createBuilder();
+        builder.setOutOfCore(cacheSize);
+        builder = FptaNode.constructFPTA(path, builder, sortMemory);
+        immutableTree = builder.getRoot();
+        treeBuilder = builder;
+        alphabet = builder.getAlphabet();
+        double timeElapsed = System.currentTimeMillis() - start;
+        System.out.println("FPTA construction time   : " + String.format("%.2f", timeElapsed / 1000) + " seconds.");
+        metrics = new LearningMetrics();
+        metrics.recordFpta(builder.getNodeCount(), timeElapsed / 1000);
+        saveSnapshot(builder);
+        return builder.getSampleSizeSum();
+    }
+
+    private FptaBuilder createBuilder(){
+        if (treeBuilder != null) {
+            treeBuilder.close();
+            treeBuilder = null;
         }
-        redList.add(index, blue);
+        FptaBuilder builder = new FptaBuilder(modelType, parallelism);
+        builder.setMaxDepth(maxDepth);
+        builder.setMinCount(minCount);
+        builder.setNodeBudget(nodeBudget);
+        return builder;
     }
 
     /**
-     * Returns node with shortest prefix/lexicographically minimal node.
-     * @param x list of Fpta nodes
-     * @return lexicographically minimal node (node with shortest prefix)
+     * Saves the constructed tree, if snapshot location is set.
+     * @param builder builder holding the constructed tree
      */
-    private FptaNode getLexMin(List<FptaNode> x){
-        FptaNode min = x.get(0);
-        for (FptaNode node: x) {
-            if(node.compareTo(min) < 0)
-                min = node;
+    private void saveSnapshot(FptaBuilder builder){
+        if (snapshotLocation == null)
+            return;
+        try {
+            FptaSnapshot.save(builder, snapshotLocation);
+        } catch (IOException e) {
+            throw new AlergiaException("FPTA snapshot could not be saved.", e);
         }
-        return min;
     }
 
-
     /**
-     * Normalizes probabilities of final states, that it assigns probabilities to transitions for each state.
-     * @param red list of states of learned automaton
+     * Runs the main loop of the algorithm and saves the learned model.
+     * @return learned model
      */
-    private void normalize(List<FptaNode> red) {
-        int index = 0;
-        for(FptaNode r : red){
-            r.stateId = "q" + index;
-            index += 1;
-            r.childrenProbability = new HashMap<>();
-
-            if(modelType == ModelType.MC){
-                int totalOutput = r.inputFrequency.values().stream().mapToInt(Integer::intValue).sum();
-                for (String io : r.inputFrequency.keySet())
-                    r.childrenProbability.put(io, r.inputFrequency.get(io).doubleValue() / totalOutput);
-            }else{
-                for (String io : r.inputFrequency.keySet()) {
-                    List<String> inputAndOutput = Arrays.asList(io.split("/"));
-                    r.childrenProbability.put(io, (r.inputFrequency.get(io).doubleValue() /
-                            r.getInputFrequency(inputAndOutput.get(0), false)));
-                }
-            }
+    private LearnedModel runMainAlergiaLoop() {
+        double start = System.currentTimeMillis();
+
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        LearnedModel model;
+        try {
+            AlergiaRun run = new AlergiaRun(immutableTree, alphabet, modelType, compatibilityChecker, pool);
+            run.setMetrics(metrics);
+            if (metricsListener != null)
+                run.setListener(metricsListener, metricsInterval);
+            model = run.learn();
+        } finally {
+            if (pool != null)
+                pool.shutdown();
         }
+
+        Parser.saveModel(model, saveLocation);
+        double timeElapsed = System.currentTimeMillis() - start;
+        System.out.println("Alergia learning time    : " + String.format("%.2f", timeElapsed / 1000) + " seconds.");
+        System.out.println("Alergia learned " + model.getStateCount() + " state automaton.");
+        return model;
     }
 
     /**
@@ -299,24 +420,53 @@ public class Alergia {
         List<List<String>> data = Parser.parseFile(path);
         Alergia a = new Alergia(saveLocation);
         a.runAlergia(data, type, eps);
-
-        System.exit(0);
     }
 
     /**
      * @param args argument list defined for command line use. For more details run alergia.jar with -h option.
      */
     public static void main(String[] args) {
-        List<Object> argValues = Parser.parseArgs(args);
-
-        String path = (String) argValues.get(0);
-        double eps = (Double) argValues.get(1);
-        ModelType type = (ModelType) argValues.get(2);
-        String saveLocation = (String) argValues.get(3);
+        AlergiaOptions options = Parser.parseArgs(args);
+
+        if (options.convertLocation != null) {
+            try {
+                BinaryTraceFormat.convert(options.path, options.convertLocation);
+            } catch (IOException e) {
+                System.out.println("jAlergia Error: Input file could not be converted.");
+                e.printStackTrace();
+                System.exit(1);
+            }
+            System.out.println("Input file converted to " + options.convertLocation + ".");
+            System.exit(0);
+        }
 
-        List<List<String>> data = Parser.parseFile(path);
-        Alergia a = new Alergia(saveLocation);
-        a.runAlergia(data, type, eps);
+        Alergia a = new Alergia(options.saveLocation);
+        a.setParallelism(options.parallelism);
+        a.setSnapshotLocation(options.snapshotLocation);
+        a.setFptaLimits(options.maxDepth, options.minCount, options.nodeBudget);
+        a.setSortMemory(options.sortMemory);
+        a.setOutOfCore(options.cacheSize);
+        if (options.metricsLocation != null) {
+            try {
+                a.setMetricsListener(new JsonLinesMetricsListener(options.metricsLocation),
+                        (long) (options.metricsInterval * 1000));
+            } catch (IOException e) {
+                System.out.println("jAlergia Error: Metrics file could not be created.");
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        try {
+            if (options.epsilons != null)
+                a.runAlergiaSweep(options.path, options.type, options.epsilons);
+            else
+                a.runAlergia(options.path, options.type, options.eps);
+        } catch (AlergiaException e) {
+            System.out.println("jAlergia Error: " + e.getMessage());
+            if (e.getCause() != null)
+                e.getCause().printStackTrace();
+            System.exit(1);
+        }
         System.exit(0);
     }
 }
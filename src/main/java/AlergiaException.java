@@ -0,0 +1,15 @@
+/**
+ * Thrown when learning cannot proceed, e.g. because the input data is malformed or a file cannot be read or
+ * written. Command line entry points report it and exit; library users can handle it and continue.
+ */
+public class AlergiaException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public AlergiaException(String message){
+        super(message);
+    }
+
+    public AlergiaException(String message, Throwable cause){
+        super(message, cause);
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Entry point for using jAlergia as a library. Each call of learn constructs its own FPTA and symbol table, returns
+ * the learned model instead of writing it to a file, and reports errors with AlergiaException. Learner holds only
+ * configuration, so learn can be called concurrently from several threads, as long as the configuration is not
+ * changed meanwhile and the CompatibilityChecker is thread-safe.
+ */
+public class AlergiaLearner {
+    private final ModelType modelType;
+    private double eps = 0.05;
+    private CompatibilityChecker compatibilityChecker = null;
+    private int parallelism = 1;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int minCount = 1;
+    private long nodeBudget = 0;
+    private long sortMemory = 0;
+    private int cacheSize = 0;
+
+    /**
+     * @param type model type
+     */
+    public AlergiaLearner(ModelType type){
+        this.modelType = type;
+    }
+
+    /**
+     * Sets epsilon of the HoeffdingCompatibilityChecker used by learn. Replaces a previously set checker.
+     * @param eps epsilon value, or -1 to compute it from the number of steps of all samples
+     */
+    public void setEpsilon(double eps){
+        if ((eps > 2 || eps <= 0) && eps != -1)
+            throw new IllegalArgumentException("Epsilon must be in range of (0, 2], or -1 for automatic computation.");
+        this.eps = eps;
+        this.compatibilityChecker = null;
+    }
+
+    /**
+     * @param compChecker instance of CompatibilityChecker implementation used instead of the Hoeffding check
+     */
+    public void setCompatibilityChecker(CompatibilityChecker compChecker){
+        this.compatibilityChecker = compChecker;
+    }
+
+    /**
+     * @param parallelism number of threads used by each learn call to construct the FPTA and to search for
+     * compatible states, 1 by default
+     */
+    public void setParallelism(int parallelism){
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Bounds the size of the FPTA, see Alergia.setFptaLimits.
+     */
+    public void setFptaLimits(int maxDepth, int minCount, long nodeBudget){
+        if (maxDepth < 1 || minCount < 1 || nodeBudget < 0)
+            throw new IllegalArgumentException("FPTA limits must be positive.");
+        this.maxDepth = maxDepth;
+        this.minCount = minCount;
+        this.nodeBudget = nodeBudget;
+    }
+
+    /**
+     * Enables sorting and deduplication of samples read from input files, see Alergia.setSortMemory.
+     */
+    public void setSortMemory(long sortMemory){
+        if (sortMemory < 0)
+            throw new IllegalArgumentException("Sort memory must not be negative.");
+        this.sortMemory = sortMemory;
+    }
+
+    /**
+     * Keeps the FPTA of input files out of core, see Alergia.setOutOfCore. Files of each learn call are deleted
+     * once its model is learned.
+     */
+    public void setOutOfCore(int cacheSize){
+        if (cacheSize < 0)
+            throw new IllegalArgumentException("Cache size must not be negative.");
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Learns a model from samples.
+     * @param samples lists of strings conforming to syntax defined at https://github.com/emuskardin/jAlergia
+     * @return learned model
+     * @throws AlergiaException if there are no samples or they do not conform to the syntax
+     */
+    public LearnedModel learn(Iterable<? extends List<String>> samples){
+        FptaBuilder builder = createBuilder();
+        try {
+            for (List<String> sample : samples)
+                builder.addSample(sample);
+        } catch (RuntimeException e) {
+            builder.cancel();
+            throw e;
+        }
+        return learn(builder);
+    }
+
+    /**
+     * Learns a model from samples. Samples are consumed in encounter order, also from parallel streams.
+     * @param samples lists of strings conforming to syntax defined at https://github.com/emuskardin/jAlergia
+     * @return learned model
+     * @throws AlergiaException if there are no samples or they do not conform to the syntax
+     */
+    public LearnedModel learn(Stream<? extends List<String>> samples){
+        FptaBuilder builder = createBuilder();
+        try {
+            samples.forEachOrdered(builder::addSample);
+        } catch (RuntimeException e) {
+            builder.cancel();
+            throw e;
+        }
+        return learn(builder);
+    }
+
+    /**
+     * Learns a model from a text or binary input file, or from an FPTA snapshot.
+     * @param path path to input file
+     * @return learned model
+     * @throws AlergiaException if the file cannot be read or its samples do not conform to the syntax
+     */
+    public LearnedModel learn(String path){
+        FptaBuilder builder = createBuilder();
+        builder.setOutOfCore(cacheSize);
+        return learn(FptaNode.constructFPTA(path, builder, sortMemory));
+    }
+
+    private FptaBuilder createBuilder(){
+        FptaBuilder builder = new FptaBuilder(modelType, parallelism);
+        builder.setMaxDepth(maxDepth);
+        builder.setMinCount(minCount);
+        builder.setNodeBudget(nodeBudget);
+        return builder;
+    }
+
+    private LearnedModel learn(FptaBuilder builder){
+        ForkJoinPool pool = null;
+        try {
+            // completing the tree can fail, e.g. when writing the out-of-core store, whose files are then deleted
+            FptaNode root = builder.getRoot();
+            CompatibilityChecker checker = compatibilityChecker;
+            if (checker == null)
+                checker = new HoeffdingCompatibilityChecker(eps == -1 ? 10. / builder.getSampleSizeSum() : eps);
+
+            pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+            return new AlergiaRun(root, builder.getAlphabet(), modelType, checker, pool).learn();
+        } finally {
+            builder.close();
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,405 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * FIFO queue of node pairs kept in two growable ring buffers. Traversals reuse one queue, so visiting a pair does
+ * not allocate. Removed entries are cleared, so that nodes of an out-of-core tree are not kept on the heap once
+ * they were visited.
+ */
+final class PairQueue {
+    private FptaNode[] firsts = new FptaNode[64];
+    private FptaNode[] seconds = new FptaNode[64];
+    private int head = 0;
+    private int size = 0;
+    private FptaNode first;
+    private FptaNode second;
+
+    void clear(){
+        while (size > 0)
+            poll();
+        first = null;
+        second = null;
+    }
+
+    boolean isEmpty(){
+        return size == 0;
+    }
+
+    void add(FptaNode first, FptaNode second){
+        if (size == firsts.length) {
+            // unwrap the buffers, so that the queue starts at index 0
+            FptaNode[] newFirsts = new FptaNode[size * 2], newSeconds = new FptaNode[size * 2];
+            for (int i = 0; i < size; i++) {
+                newFirsts[i] = firsts[(head + i) & (size - 1)];
+                newSeconds[i] = seconds[(head + i) & (size - 1)];
+            }
+            firsts = newFirsts;
+            seconds = newSeconds;
+            head = 0;
+        }
+        int tail = (head + size) & (firsts.length - 1);
+        firsts[tail] = first;
+        seconds[tail] = second;
+        size++;
+    }
+
+    /**
+     * Removes the head pair, which is then available through first() and second().
+     */
+    void poll(){
+        first = firsts[head];
+        second = seconds[head];
+        firsts[head] = null;
+        seconds[head] = null;
+        head = (head + 1) & (firsts.length - 1);
+        size--;
+    }
+
+    FptaNode first(){
+        return first;
+    }
+
+    FptaNode second(){
+        return second;
+    }
+}
+
+/**
+ * Single run of the red-blue state merging loop over an immutable FPTA.
+ * All state modified while learning is held by the run, so several runs, e.g. with different epsilons, can share
+ * the same immutable tree and execute concurrently.
+ */
+class AlergiaRun {
+    private final FptaNode immutableTree;
+    private final Alphabet alphabet;
+    private final ModelType modelType;
+    private final CompatibilityChecker compatibilityChecker;
+    private final ForkJoinPool pool;
+    // results of compatibility tests from previous runs, may be null
+    private CompatibilityMemo memo = null;
+
+    private LearningMetrics metrics = new LearningMetrics();
+    private MetricsListener listener = null;
+    private long reportInterval = 0;
+
+    private FptaOverlay mutableTree;
+    // red and blue membership, indexed by node rank
+    private BitSet redStates;
+    private BitSet blueStates;
+    // blue nodes ordered by their shortlex rank, head is the lexicographically minimal node
+    private PriorityQueue<FptaNode> blueFrontier;
+    // red node from which each blue node is reached in the mutable tree
+    private Map<FptaNode, FptaNode> blueParents;
+    // red nodes in lexicographic order grouped by output, as nodes with different outputs are never compatible
+    private Map<Integer, List<FptaNode>> redByOutput;
+    private final PairQueue foldQueue = new PairQueue();
+    // compatibility tests run concurrently if the run has a pool
+    private final ThreadLocal<PairQueue> testQueues = ThreadLocal.withInitial(PairQueue::new);
+
+    /**
+     * @param immutableTree root of the FPTA
+     * @param alphabet alphabet of the FPTA
+     * @param modelType mdp, smm, or mc
+     * @param compatibilityChecker checker used to compare nodes
+     * @param pool pool used to test red nodes in parallel, or null to test them sequentially
+     */
+    AlergiaRun(FptaNode immutableTree, Alphabet alphabet, ModelType modelType,
+               CompatibilityChecker compatibilityChecker, ForkJoinPool pool){
+        this.immutableTree = immutableTree;
+        this.alphabet = alphabet;
+        this.modelType = modelType;
+        this.compatibilityChecker = compatibilityChecker;
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the memo from which results of compatibility tests are reused, and to which new results are added.
+     * Memo must have been filled by runs with the same compatibility checker.
+     */
+    public void setMemo(CompatibilityMemo memo){
+        this.memo = memo;
+    }
+
+    /**
+     * Sets the metrics updated by the run, e.g. ones already holding metrics of the FPTA construction.
+     */
+    public void setMetrics(LearningMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    public LearningMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * @param listener listener receiving metrics of the run
+     * @param intervalMillis interval in which metrics are reported during learning, 0 to report only final metrics
+     */
+    public void setListener(MetricsListener listener, long intervalMillis){
+        this.listener = listener;
+        this.reportInterval = intervalMillis * 1_000_000;
+    }
+
+    /**
+     * Runs the main loop of the algorithm.
+     * @return learned model
+     */
+    public LearnedModel learn() {
+        long start = System.nanoTime();
+        long nextReport = start + reportInterval;
+        List<FptaNode> red = new ArrayList<>();
+        red.add(immutableTree);
+        initialize();
+
+        // blue frontier is updated incrementally: merge removes lexMinBlue and fold adds nodes grafted to red
+        // nodes, while promotion adds successors of the new red node
+        while (!blueFrontier.isEmpty()){
+            long iterationStart = System.nanoTime();
+            FptaNode lexMinBlue = blueFrontier.poll();
+            blueStates.clear(lexMinBlue.rank);
+            FptaNode blueParent = blueParents.remove(lexMinBlue);
+
+            FptaNode r = findCompatibleRed(redByOutput.getOrDefault(outputKey(lexMinBlue),
+                    Collections.emptyList()), lexMinBlue);
+            if(r != null) {
+                merge(r, blueParent, lexMinBlue);
+                metrics.merges++;
+            } else {
+                insertInLexMinSort(red, lexMinBlue);
+                insertInLexMinSort(redByOutput.computeIfAbsent(outputKey(lexMinBlue), k -> new ArrayList<>()),
+                        lexMinBlue);
+                redStates.set(lexMinBlue.rank);
+                for (FptaNode s : mutableTree.getSuccessors(lexMinBlue))
+                    addToBlue(lexMinBlue, s);
+                metrics.promotions++;
+            }
+
+            long now = System.nanoTime();
+            metrics.iterations++;
+            metrics.iterationNanos.record(now - iterationStart);
+            if (listener != null && reportInterval > 0 && now >= nextReport) {
+                metrics.redStates = red.size();
+                metrics.learningSeconds = (now - start) / 1e9;
+                listener.onMetrics(metrics, false);
+                nextReport = now + reportInterval;
+            }
+        }
+
+        LearnedModel model = new LearnedModel(red, mutableTree, modelType, alphabet);
+        metrics.redStates = red.size();
+        metrics.learningSeconds = (System.nanoTime() - start) / 1e9;
+        metrics.finished = true;
+        if (listener != null)
+            listener.onMetrics(metrics, true);
+        return model;
+    }
+
+    /**
+     * Resets the mutable tree, so that root is the only red node and its successors are blue.
+     */
+    void initialize() {
+        mutableTree = new FptaOverlay(immutableTree);
+        redStates = new BitSet();
+        redStates.set(immutableTree.rank);
+        redByOutput = new HashMap<>();
+        redByOutput.put(outputKey(immutableTree), new ArrayList<>(Collections.singletonList(immutableTree)));
+        blueStates = new BitSet();
+        blueFrontier = new PriorityQueue<>(FptaNode::compareTo);
+        blueParents = new IdentityHashMap<>();
+        for (FptaNode s : mutableTree.getSuccessors(immutableTree))
+            addToBlue(immutableTree, s);
+    }
+
+    /**
+     * @return key of the node in redByOutput, outputs are not compared for SMMs
+     */
+    private int outputKey(FptaNode node){
+        return modelType != ModelType.SMM ? node.output : 0;
+    }
+
+    /**
+     * Finds the first red node compatible with the blue node. If the run has a pool, red nodes are
+     * tested in parallel, and the compatible red node with the lowest index is returned.
+     * @param red red nodes with the output of the blue node, in lexicographic order
+     * @param lexMinBlue blue node
+     * @return first compatible red node, or null if there is none
+     */
+    private FptaNode findCompatibleRed(List<FptaNode> red, FptaNode lexMinBlue) {
+        if (pool == null || red.size() <= 1) {
+            for (FptaNode r : red) {
+                if (isCompatible(r, lexMinBlue))
+                    return r;
+            }
+            return null;
+        }
+
+        OptionalInt index = pool.submit(() -> IntStream.range(0, red.size()).parallel()
+                .filter(i -> isCompatible(red.get(i), lexMinBlue))
+                .findFirst()).join();
+        return index.isPresent() ? red.get(index.getAsInt()) : null;
+    }
+
+    /**
+     * Tests compatibility of nodes, or reuses the result of a previous test if neither subtree changed since.
+     */
+    private boolean isCompatible(FptaNode r, FptaNode lexMinBlue) {
+        if (memo == null)
+            return compatibilityTest(r, lexMinBlue);
+        int result = memo.get(r, lexMinBlue);
+        if (result >= 0)
+            return result == 1;
+        boolean compatible = compatibilityTest(r, lexMinBlue);
+        memo.put(r, lexMinBlue, compatible);
+        return compatible;
+    }
+
+    /**
+     * Redirects lexMinBlue to r and folds their children
+     * @param r red node
+     * @param blueParent red node from which the blue node is reached
+     * @param lexMinBlue blue node
+     */
+    private void merge(FptaNode r, FptaNode blueParent, FptaNode lexMinBlue) {
+        // blue node is reached with the pair of its immutable parent, also if that parent was folded elsewhere
+        EdgeMap parentChildren = mutableTree.getModifiableChildren(blueParent);
+        parentChildren.setNodeAt(parentChildren.indexOf(lexMinBlue.parentInputPair.inputOutput), r);
+
+        fold(r, lexMinBlue);
+    }
+
+    /**
+     * Folds blue subtree in red subtree.
+     * @param redSubtreeRoot red node
+     * @param blueSubtreeRoot blue node in red tree
+     */
+    void fold(FptaNode redSubtreeRoot, FptaNode blueSubtreeRoot) {
+        PairQueue queue = foldQueue;
+        queue.clear();
+        queue.add(redSubtreeRoot, blueSubtreeRoot);
+        int foldedPairs = 0;
+
+        while (!queue.isEmpty()) {
+            queue.poll();
+            foldedPairs++;
+            FptaNode red = queue.first();
+            FptaNode blue = queue.second();
+
+            EdgeMap blueChildren = mutableTree.getChildren(blue);
+            if (blueChildren.isEmpty())
+                continue;
+            EdgeMap redChildren = mutableTree.getModifiableChildren(red);
+
+            // merge join of sorted keys, inserted keys keep red children sorted
+            int j = 0;
+            for (int i = 0; i < blueChildren.size(); i++){
+                int io = blueChildren.keyAt(i);
+                while (j < redChildren.size() && redChildren.keyAt(j) < io)
+                    j++;
+                if (j < redChildren.size() && redChildren.keyAt(j) == io) {
+                    redChildren.addCountAt(j, blueChildren.countAt(i));
+                    queue.add(redChildren.nodeAt(j), blueChildren.nodeAt(i));
+                } else {
+                    redChildren.insertAt(j, io, blueChildren.nodeAt(i), blueChildren.countAt(i));
+                    if (redStates.get(red.rank))
+                        addToBlue(red, blueChildren.nodeAt(i));
+                }
+                j++;
+            }
+        }
+
+        metrics.foldSizes.record(foldedPairs);
+    }
+
+    /**
+     * Check compatibility between nodes and their children.
+     * Most tests fail at the first pair, which is tested before the queue of the thread is looked up.
+     * @param redSubtree Fpta node
+     * @param blueSubtree Fpta node
+     * @return True if a and b are compatible
+     */
+    boolean compatibilityTest(FptaNode redSubtree, FptaNode blueSubtree){
+        PairQueue queue = null;
+        FptaNode a = redSubtree;
+        FptaNode b = blueSubtree;
+        int visitedPairs = 0;
+        int checks = 0;
+
+        while (true) {
+            visitedPairs++;
+
+            if (modelType != ModelType.SMM && a.output != b.output) {
+                metrics.recordCompatibilityTest(visitedPairs, checks);
+                return false;
+            }
+
+            checks++;
+            if (compatibilityChecker.areStatesDifferent(a, b, modelType, alphabet)) {
+                metrics.recordCompatibilityTest(visitedPairs, checks);
+                return false;
+            }
+
+            // children are matched by input/output pair, so their outputs are equal and only the checker can
+            // reject them; pairs it can never reject are skipped together with their subtrees
+            EdgeMap aChildren = a.getChildren(), bChildren = b.getChildren();
+            int i = 0, j = 0;
+            while (i < aChildren.size() && j < bChildren.size()) {
+                int aKey = aChildren.keyAt(i), bKey = bChildren.keyAt(j);
+                if (aKey < bKey)
+                    i++;
+                else if (aKey > bKey)
+                    j++;
+                else {
+                    if (compatibilityChecker.canReject(aChildren.countAt(i), bChildren.countAt(j))) {
+                        if (queue == null) {
+                            queue = testQueues.get();
+                            queue.clear();
+                        }
+                        queue.add(aChildren.nodeAt(i), bChildren.nodeAt(j));
+                    }
+                    i++;
+                    j++;
+                }
+            }
+
+            if (queue == null || queue.isEmpty())
+                break;
+            queue.poll();
+            a = queue.first();
+            b = queue.second();
+        }
+
+        metrics.recordCompatibilityTest(visitedPairs, checks);
+        return true;
+    }
+
+    /**
+     * Adds a successor of a red node to the blue frontier, unless it is already red or blue.
+     * @param parent red node
+     * @param node successor of the red node
+     */
+    private void addToBlue(FptaNode parent, FptaNode node){
+        if (redStates.get(node.rank) || blueStates.get(node.rank))
+            return;
+        blueStates.set(node.rank);
+        blueFrontier.add(node);
+        blueParents.put(node, parent);
+    }
+
+    /**
+     * Insert blue in redList while preserving lexicographically minimal order.
+     * @param redList list of automaton states/red nodes
+     * @param blue blue node
+     */
+    private void insertInLexMinSort(List<FptaNode> redList, FptaNode blue){
+        int low = 0, high = redList.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (redList.get(mid).compareTo(blue) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        redList.add(low, blue);
+    }
+}
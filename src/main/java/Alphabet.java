@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Open addressing hash map from long keys to non-negative int values, without boxing.
+ */
+class LongIntMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys = new long[64];
+    private int[] values = new int[64];
+    private int size = 0;
+
+    public LongIntMap(){
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * @return value of the key, or -1 if key is not present
+     */
+    public int get(long key){
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void put(long key, int value){
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        if (keys[slot] == EMPTY)
+            size++;
+        keys[slot] = key;
+        values[slot] = value;
+
+        if (size * 2 > keys.length)
+            rehash();
+    }
+
+    /**
+     * Replaces every value with mapping[value].
+     */
+    public void remapValues(int[] mapping){
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY)
+                values[i] = mapping[values[i]];
+        }
+    }
+
+    private void rehash(){
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (keys[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int hash(long key){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
+
+/**
+ * Dense numbering of outputs of each input: input/output pair io is the slots[io]-th output of its input, and
+ * input has slotCounts[input + 1] outputs. Used to store output distributions of an input in dense arrays.
+ */
+class OutputSlots {
+    // number of input/output pairs numbered
+    final int ioCount;
+    final int[] slots;
+    final int[] slotCounts;
+
+    OutputSlots(int ioCount, int[] slots, int[] slotCounts){
+        this.ioCount = ioCount;
+        this.slots = slots;
+        this.slotCounts = slotCounts;
+    }
+
+    /**
+     * @param input input id or Alphabet.NO_INPUT
+     * @return number of outputs observed after the input
+     */
+    public int slotCount(int input){
+        return input + 1 < slotCounts.length ? slotCounts[input + 1] : 0;
+    }
+}
+
+/**
+ * Maps inputs, outputs and input/output pairs to dense integer ids.
+ * Inputs and outputs share the same symbol ids. For Markov chains input/output pair consists only of an output,
+ * and its input is set to NO_INPUT.
+ * New ids can be assigned concurrently from several threads; ids are looked up after construction without locking.
+ */
+class Alphabet {
+    public static final int NO_INPUT = -1;
+
+    private final HashMap<String, Integer> symbolIds = new HashMap<>();
+    private final List<String> symbols = new ArrayList<>();
+
+    private final LongIntMap ioIds = new LongIntMap();
+    private int[] ioInputs = new int[16];
+    private int[] ioOutputs = new int[16];
+    private final List<String> ioStrings = new ArrayList<>();
+    private int ioSize = 0;
+    private volatile OutputSlots outputSlots = null;
+
+    /**
+     * @param symbol input or output
+     * @return id of the symbol, new id is assigned to previously unseen symbols
+     */
+    public synchronized int getSymbolId(String symbol){
+        Integer id = symbolIds.get(symbol);
+        if (id == null) {
+            id = symbols.size();
+            symbolIds.put(symbol, id);
+            symbols.add(symbol);
+        }
+        return id;
+    }
+
+    public String getSymbol(int symbolId){
+        return symbols.get(symbolId);
+    }
+
+    public int getSymbolCount(){
+        return symbols.size();
+    }
+
+    /**
+     * @param input id of the input symbol or NO_INPUT
+     * @param output id of the output symbol
+     * @return id of the input/output pair, new id is assigned to previously unseen pairs
+     */
+    public synchronized int getIoId(int input, int output){
+        long key = ioKey(input, output);
+        int id = ioIds.get(key);
+        if (id >= 0)
+            return id;
+
+        id = ioSize++;
+        ioIds.put(key, id);
+        if (id == ioInputs.length) {
+            ioInputs = Arrays.copyOf(ioInputs, id * 2);
+            ioOutputs = Arrays.copyOf(ioOutputs, id * 2);
+        }
+        ioInputs[id] = input;
+        ioOutputs[id] = output;
+        ioStrings.add(input == NO_INPUT ? symbols.get(output) : symbols.get(input) + '/' + symbols.get(output));
+        return id;
+    }
+
+    /**
+     * @return key identifying (input, output) in maps from input/output pairs
+     */
+    static long ioKey(int input, int output){
+        return ((long) input << 32) | (output & 0xffffffffL);
+    }
+
+    public int getIoInput(int ioId){
+        return ioInputs[ioId];
+    }
+
+    public int getIoOutput(int ioId){
+        return ioOutputs[ioId];
+    }
+
+    /**
+     * @return input/output pair in the "input/output" notation, or only output for Markov chains
+     */
+    public String getIoString(int ioId){
+        return ioStrings.get(ioId);
+    }
+
+    public int getIoCount(){
+        return ioSize;
+    }
+
+    /**
+     * Numbers outputs of each input in the order of input/output pair ids. Pairs added later get the next slots
+     * of their input, so slots of existing pairs change only when ids are reassigned by sortIoIds.
+     * @return output slots of all current input/output pairs
+     */
+    public OutputSlots getOutputSlots(){
+        OutputSlots current = outputSlots;
+        if (current != null && current.ioCount == ioSize)
+            return current;
+        synchronized (this) {
+            int[] slots = new int[ioSize];
+            int[] slotCounts = new int[symbols.size() + 1];
+            for (int io = 0; io < ioSize; io++)
+                slots[io] = slotCounts[ioInputs[io] + 1]++;
+            current = new OutputSlots(ioSize, slots, slotCounts);
+            outputSlots = current;
+            return current;
+        }
+    }
+
+    /**
+     * Compares input/output pairs lexicographically by their string representation.
+     * Once sortIoIds was called, this is equivalent to comparing the ids.
+     */
+    public int compareIo(int a, int b){
+        return ioStrings.get(a).compareTo(ioStrings.get(b));
+    }
+
+    /**
+     * Reassigns input/output pair ids, so that their order matches the lexicographic order of their
+     * string representation.
+     * @return mapping from old to new ids, or null if ids were already sorted
+     */
+    public synchronized int[] sortIoIds(){
+        Integer[] order = new Integer[ioSize];
+        for (int i = 0; i < ioSize; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> compareIo(a, b));
+
+        int[] mapping = new int[ioSize];
+        boolean sorted = true;
+        for (int newId = 0; newId < ioSize; newId++) {
+            mapping[order[newId]] = newId;
+            sorted &= order[newId] == newId;
+        }
+        if (sorted)
+            return null;
+
+        int[] sortedInputs = new int[ioInputs.length];
+        int[] sortedOutputs = new int[ioOutputs.length];
+        List<String> sortedStrings = new ArrayList<>(ioSize);
+        for (int newId = 0; newId < ioSize; newId++) {
+            sortedInputs[newId] = ioInputs[order[newId]];
+            sortedOutputs[newId] = ioOutputs[order[newId]];
+            sortedStrings.add(ioStrings.get(order[newId]));
+        }
+        ioInputs = sortedInputs;
+        ioOutputs = sortedOutputs;
+        ioStrings.clear();
+        ioStrings.addAll(sortedStrings);
+        ioIds.remapValues(mapping);
+        outputSlots = null;
+        return mapping;
+    }
+}
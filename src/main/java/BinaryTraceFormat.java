@@ -0,0 +1,256 @@
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary representation of input files.
+ * File starts with MAGIC and VERSION, followed by the symbol dictionary: number of symbols and, for each symbol,
+ * the length of its UTF-8 encoding followed by the encoding. Dictionary is followed by samples until the end of the
+ * file, each sample being its length followed by dictionary indices of its symbols.
+ * All numbers are unsigned LEB128 varints, so samples over small alphabets take one byte per symbol.
+ */
+class BinaryTraceFormat {
+    static final byte[] MAGIC = {'J', 'A', 'L', 'T'};
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BinaryTraceFormat(){}
+
+    /**
+     * @return true if the file starts with MAGIC
+     */
+    public static boolean isBinary(String path) throws IOException {
+        return hasHeader(path, MAGIC);
+    }
+
+    /**
+     * @return true if the file starts with the given bytes
+     */
+    static boolean hasHeader(String path, byte[] magic) throws IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            byte[] header = new byte[magic.length];
+            int read = 0;
+            while (read < header.length) {
+                int n = in.read(header, read, header.length - read);
+                if (n < 0)
+                    return false;
+                read += n;
+            }
+            return Arrays.equals(header, magic);
+        }
+    }
+
+    /**
+     * Reads the file and inserts all samples in the builder.
+     * @param path path to binary input file
+     * @param builder builder receiving samples
+     */
+    public static void read(String path, FptaBuilder builder) throws IOException {
+        read(path, builder.getAlphabet(), builder);
+    }
+
+    /**
+     * Reads the file and passes all samples to the sink in the order of the file.
+     * Dictionary indices of the file are mapped to symbol ids of the alphabet once, when reading the header.
+     * @param path path to binary input file
+     * @param alphabet alphabet used to encode symbols
+     * @param sink sink receiving samples
+     */
+    public static void read(String path, Alphabet alphabet, SampleSink sink) throws IOException {
+        try (VarintInput in = new VarintInput(Files.newInputStream(Paths.get(path)))) {
+            for (byte b : MAGIC) {
+                if (in.readByte() != b)
+                    throw new IOException("File " + path + " is not a jAlergia binary trace file.");
+            }
+            int version = in.readVarint();
+            if (version != VERSION)
+                throw new IOException("Unsupported binary trace file version " + version + ".");
+
+            int[] symbolIds = new int[in.readVarint()];
+            for (int i = 0; i < symbolIds.length; i++)
+                symbolIds[i] = alphabet.getSymbolId(new String(in.readBytes(in.readVarint()), StandardCharsets.UTF_8));
+
+            int[] sample = new int[64];
+            while (!in.atEnd()) {
+                int length = in.readVarint();
+                if (length > sample.length)
+                    sample = new int[Math.max(length, sample.length * 2)];
+                for (int i = 0; i < length; i++) {
+                    int index = in.readVarint();
+                    if (index >= symbolIds.length)
+                        throw new IOException("Symbol index " + index + " is not in the dictionary of " + path + ".");
+                    sample[i] = symbolIds[index];
+                }
+                if (length > 0)
+                    sink.addSample(sample, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Converts a file conforming to syntax defined at https://github.com/emuskardin/jAlergia to the binary format.
+     * Samples are encoded to a temporary file while the dictionary is collected, and are copied after the
+     * dictionary once the whole input has been read.
+     * @param inputPath path to text input file
+     * @param outputPath path of the binary file
+     */
+    public static void convert(String inputPath, String outputPath) throws IOException {
+        Path output = Paths.get(outputPath).toAbsolutePath();
+        Path body = Files.createTempFile(output.getParent(), output.getFileName().toString(), ".tmp");
+        try {
+            Alphabet alphabet = new Alphabet();
+            try (VarintOutput out = new VarintOutput(Files.newOutputStream(body))) {
+                MappedTraceReader.read(inputPath, alphabet, (symbols, offset, length) -> {
+                    try {
+                        out.writeVarint(length);
+                        for (int i = offset; i < offset + length; i++)
+                            out.writeVarint(symbols[i]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, 1);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), BUFFER_SIZE)) {
+                List<String> symbols = new ArrayList<>();
+                for (int i = 0; i < alphabet.getSymbolCount(); i++)
+                    symbols.add(alphabet.getSymbol(i));
+                writeHeader(out, symbols);
+                Files.copy(body, out);
+            }
+        } finally {
+            Files.deleteIfExists(body);
+        }
+    }
+
+    /**
+     * Writes MAGIC, VERSION and the symbol dictionary. Samples written afterwards refer to symbols by their index
+     * in the list.
+     * @param out stream of the binary file
+     * @param symbols dictionary of the file
+     */
+    static void writeHeader(OutputStream out, List<String> symbols) throws IOException {
+        byte[] buffer = new byte[5];
+        out.write(MAGIC);
+        out.write(buffer, 0, putVarint(buffer, 0, VERSION));
+        out.write(buffer, 0, putVarint(buffer, 0, symbols.size()));
+        for (String symbol : symbols) {
+            byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+            out.write(buffer, 0, putVarint(buffer, 0, bytes.length));
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Encodes the value as a varint of at most 5 bytes.
+     * @return position after the encoded value
+     */
+    static int putVarint(byte[] buffer, int position, int value){
+        while ((value & ~0x7f) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Buffered reader of bytes and varints.
+     */
+    static final class VarintInput implements AutoCloseable {
+        private final InputStream stream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+
+        VarintInput(InputStream stream){
+            this.stream = stream;
+        }
+
+        boolean atEnd() throws IOException {
+            return position == limit && !fill();
+        }
+
+        byte readByte() throws IOException {
+            if (position == limit && !fill())
+                throw new EOFException("Unexpected end of binary trace file.");
+            return buffer[position++];
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            throw new IOException("Malformed varint in binary trace file.");
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++)
+                bytes[i] = readByte();
+            return bytes;
+        }
+
+        private boolean fill() throws IOException {
+            int read = stream.read(buffer);
+            position = 0;
+            limit = Math.max(read, 0);
+            return read > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    /**
+     * Buffered writer of bytes and varints.
+     */
+    static final class VarintOutput implements AutoCloseable {
+        private final OutputStream stream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+
+        VarintOutput(OutputStream stream){
+            this.stream = stream;
+        }
+
+        void writeVarint(int value) throws IOException {
+            if (position + 5 > buffer.length)
+                flush();
+            position = putVarint(buffer, position, value);
+        }
+
+        void flush() throws IOException {
+            stream.write(buffer, 0, position);
+            position = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                stream.close();
+            }
+        }
+    }
+}
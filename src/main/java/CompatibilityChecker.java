@@ -6,8 +6,22 @@ public interface CompatibilityChecker {
      * Checked statistical compatibility between two nodes.
      * @param a Fpta node
      * @param b Fpta node
+     * @param modelType mdp, smm, or mc
+     * @param alphabet alphabet of the tree, used to map input/output pair ids to inputs and outputs
      * @return true if nodes are compatible
      */
-    public boolean areStatesDifferent(FptaNode a, FptaNode b, ModelType modelType);
-}
+    public boolean areStatesDifferent(FptaNode a, FptaNode b, ModelType modelType, Alphabet alphabet);
 
+    /**
+     * Used to prune compatibility tests. Output distributions of a node and of all nodes in its subtree are taken
+     * over at most as many samples as reached the node, so if no pair of distributions with at most n1 and n2
+     * samples can be different, the subtrees of two nodes reached n1 and n2 times are not compared.
+     * @param n1 number of samples reaching the first node
+     * @param n2 number of samples reaching the second node
+     * @return false only if areStatesDifferent returns false for any pair of nodes with at most n1 and n2
+     * samples per input
+     */
+    default boolean canReject(int n1, int n2){
+        return true;
+    }
+}
@@ -0,0 +1,445 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Model compiled for scoring samples. Transitions of each state are kept in arrays sorted by input/output pair,
+ * together with their log-probabilities, conditioned on the input for MDPs and SMMs and unconditioned for
+ * Markov chains, so the size of the model grows with its number of transitions rather than with its alphabet.
+ * Samples are scored as arrays of symbol ids of the model, laid out as in input files: [output, input, output, ...]
+ * for MDPs, [input, output, ...] for SMMs, and [output, output, ...] for Markov chains. Symbols unknown to the model
+ * can be given by any id outside of [0, getSymbolCount()).
+ * Model is immutable, so it can be shared by any number of threads, and scoring methods do not allocate.
+ */
+public class CompiledModel {
+    static String helpDisplayMessage = "Scores samples with a model saved by jAlergia.\n" +
+            "Each line of the output holds the log-likelihood of a sample and the position of its first anomalous\n" +
+            "symbol, or -1 if the sample is not anomalous.\n" +
+            "Mandatory arguments\n" +
+            "\t-model <pathToDotFile> - model saved by jAlergia\n" +
+            "\t-type <modelType> - either mdp, smm, or mc\n" +
+            "\t-input <pathToInputFile> - samples in the syntax of jAlergia input files or in the binary trace format\n" +
+            "\t-output <outputFile> - file to which scores are written\n" +
+            "Optional arguments\n" +
+            "\t-threshold <doubleVal> - transitions with lower log-probability are anomalous. Default: only undefined transitions";
+
+    public static final int UNDEFINED = -1;
+
+    private final ModelType modelType;
+    private final int initialState;
+    private final int stateCount;
+    private final String[] symbols;
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+    // output of each state, UNDEFINED for SMMs
+    private final int[] stateOutputs;
+
+    // transitions of state s are at [transitionStarts[s], transitionStarts[s + 1]), sorted by Alphabet.ioKey of
+    // their input and output; inputs of Markov chains are all mapped to slot 0
+    private final int[] transitionStarts;
+    private final long[] transitionKeys;
+    private final int[] targets;
+    private final double[] logProbabilities;
+    // most probable outputs of state s are at [predictionStarts[s], predictionStarts[s + 1]), sorted by input
+    private final int[] predictionStarts;
+    private final int[] predictionInputs;
+    private final int[] predictedOutputs;
+    private final double[] predictedLogProbabilities;
+
+    /**
+     * @param model model read from a .dot file or taken from a LearnedModel
+     */
+    public CompiledModel(DotModel model){
+        this.modelType = model.modelType;
+        this.initialState = model.initialState;
+        this.stateCount = model.getStateCount();
+
+        stateOutputs = new int[stateCount];
+        for (int s = 0; s < stateCount; s++)
+            stateOutputs[s] = modelType != ModelType.SMM ? symbolId(model.stateLabels.get(s)) : UNDEFINED;
+        for (List<DotModel.Transition> transitions : model.transitions) {
+            for (DotModel.Transition t : transitions) {
+                if (t.input != null)
+                    symbolId(t.input);
+                symbolId(t.output);
+            }
+        }
+        symbols = new String[symbolIds.size()];
+        for (Map.Entry<String, Integer> entry : symbolIds.entrySet())
+            symbols[entry.getValue()] = entry.getKey();
+
+        transitionStarts = new int[stateCount + 1];
+        for (int s = 0; s < stateCount; s++)
+            transitionStarts[s + 1] = transitionStarts[s] + model.transitions.get(s).size();
+        int transitionCount = transitionStarts[stateCount];
+        transitionKeys = new long[transitionCount];
+        targets = new int[transitionCount];
+        logProbabilities = new double[transitionCount];
+        predictionStarts = new int[stateCount + 1];
+        int[] inputs = new int[transitionCount];
+        int[] outputs = new int[transitionCount];
+        double[] outputLogProbabilities = new double[transitionCount];
+
+        int predictions = 0;
+        for (int s = 0; s < stateCount; s++) {
+            List<DotModel.Transition> transitions = model.transitions.get(s);
+            long[] keys = new long[transitions.size()];
+            Integer[] order = new Integer[transitions.size()];
+            for (int i = 0; i < keys.length; i++) {
+                DotModel.Transition t = transitions.get(i);
+                keys[i] = Alphabet.ioKey(inputSlot(t), symbolIds.get(t.output));
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+
+            predictionStarts[s] = predictions;
+            for (int i = 0; i < order.length; i++) {
+                DotModel.Transition t = transitions.get(order[i]);
+                int index = transitionStarts[s] + i;
+                double logProbability = Math.log(t.probability);
+                transitionKeys[index] = keys[order[i]];
+                targets[index] = t.target;
+                logProbabilities[index] = logProbability;
+
+                // transitions with the same input are adjacent, as keys are sorted by input first
+                int input = inputSlot(t);
+                if (predictions == predictionStarts[s] || inputs[predictions - 1] != input) {
+                    inputs[predictions] = input;
+                    outputs[predictions] = symbolIds.get(t.output);
+                    outputLogProbabilities[predictions++] = logProbability;
+                } else if (logProbability > outputLogProbabilities[predictions - 1]) {
+                    outputs[predictions - 1] = symbolIds.get(t.output);
+                    outputLogProbabilities[predictions - 1] = logProbability;
+                }
+            }
+        }
+        predictionStarts[stateCount] = predictions;
+        predictionInputs = Arrays.copyOf(inputs, predictions);
+        predictedOutputs = Arrays.copyOf(outputs, predictions);
+        predictedLogProbabilities = Arrays.copyOf(outputLogProbabilities, predictions);
+    }
+
+    /**
+     * @param model model learned by Alergia
+     */
+    public CompiledModel(LearnedModel model){
+        this(DotModel.of(model));
+    }
+
+    /**
+     * Reads and compiles a model saved by Parser.saveModel.
+     * @param path path to the .dot file
+     * @param modelType type of the saved model
+     * @return compiled model
+     */
+    public static CompiledModel load(String path, ModelType modelType) throws IOException {
+        return new CompiledModel(DotModel.read(path, modelType));
+    }
+
+    private int symbolId(String symbol){
+        return symbolIds.computeIfAbsent(symbol, k -> symbolIds.size());
+    }
+
+    private int inputSlot(DotModel.Transition t){
+        return modelType == ModelType.MC ? 0 : symbolIds.get(t.input);
+    }
+
+    public ModelType getModelType(){
+        return modelType;
+    }
+
+    public int getStateCount(){
+        return stateCount;
+    }
+
+    public int getInitialState(){
+        return initialState;
+    }
+
+    public int getSymbolCount(){
+        return symbols.length;
+    }
+
+    /**
+     * @return id of the symbol, or UNDEFINED if it does not occur in the model
+     */
+    public int getSymbolId(String symbol){
+        Integer id = symbolIds.get(symbol);
+        return id != null ? id : UNDEFINED;
+    }
+
+    public String getSymbol(int symbolId){
+        return symbols[symbolId];
+    }
+
+    /**
+     * @return output of the state, or UNDEFINED for SMMs
+     */
+    public int getStateOutput(int state){
+        return stateOutputs[state];
+    }
+
+    /**
+     * @param input input id, ignored for Markov chains
+     * @param output output id
+     * @return index of the transition in the tables, or UNDEFINED if the model has no such transition
+     */
+    private int transition(int state, int input, int output){
+        if (modelType == ModelType.MC)
+            input = 0;
+        if (input < 0 || input >= symbols.length || output < 0 || output >= symbols.length)
+            return UNDEFINED;
+        int index = Arrays.binarySearch(transitionKeys, transitionStarts[state], transitionStarts[state + 1],
+                Alphabet.ioKey(input, output));
+        return index >= 0 ? index : UNDEFINED;
+    }
+
+    /**
+     * @param input input id, ignored for Markov chains
+     * @param output output id
+     * @return state reached from the state with the input and output, or UNDEFINED
+     */
+    public int step(int state, int input, int output){
+        int index = transition(state, input, output);
+        return index != UNDEFINED ? targets[index] : UNDEFINED;
+    }
+
+    /**
+     * @param input input id, ignored for Markov chains
+     * @param output output id
+     * @return log-probability of the output after the input in the state, negative infinity if it is not defined
+     */
+    public double logProbability(int state, int input, int output){
+        int index = transition(state, input, output);
+        return index != UNDEFINED ? logProbabilities[index] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @param input input id, ignored for Markov chains
+     * @return most probable output after the input in the state, or UNDEFINED if the input is not defined
+     */
+    public int predictOutput(int state, int input){
+        int index = predictionIndex(state, input);
+        return index != UNDEFINED ? predictedOutputs[index] : UNDEFINED;
+    }
+
+    /**
+     * @param input input id, ignored for Markov chains
+     * @return log-probability of the output returned by predictOutput
+     */
+    public double predictedLogProbability(int state, int input){
+        int index = predictionIndex(state, input);
+        return index != UNDEFINED ? predictedLogProbabilities[index] : Double.NEGATIVE_INFINITY;
+    }
+
+    private int predictionIndex(int state, int input){
+        if (modelType == ModelType.MC)
+            input = 0;
+        if (input < 0 || input >= symbols.length)
+            return UNDEFINED;
+        int index = Arrays.binarySearch(predictionInputs, predictionStarts[state], predictionStarts[state + 1], input);
+        return index >= 0 ? index : UNDEFINED;
+    }
+
+    /**
+     * @return position of the first input in a sample, or of the first output following the initial one
+     */
+    private int firstStep(){
+        return modelType != ModelType.SMM ? 1 : 0;
+    }
+
+    private int stepSize(){
+        return modelType == ModelType.MC ? 1 : 2;
+    }
+
+    /**
+     * @param symbols array containing symbol ids of the sample
+     * @param offset index of the first symbol of the sample
+     * @param length number of symbols in the sample
+     * @return state reached after the sample, or UNDEFINED if the sample leaves the model
+     */
+    public int run(int[] symbols, int offset, int length){
+        if (modelType != ModelType.SMM && (length == 0 || symbols[offset] != stateOutputs[initialState]))
+            return UNDEFINED;
+        int state = initialState;
+        int step = stepSize();
+        for (int i = offset + firstStep(); i + step <= offset + length && state != UNDEFINED; i += step)
+            state = modelType == ModelType.MC ? step(state, 0, symbols[i]) : step(state, symbols[i], symbols[i + 1]);
+        return state;
+    }
+
+    /**
+     * @param symbols array containing symbol ids of the sample
+     * @param offset index of the first symbol of the sample
+     * @param length number of symbols in the sample
+     * @return sum of log-probabilities of the transitions of the sample, negative infinity if the sample leaves
+     * the model
+     */
+    public double logLikelihood(int[] symbols, int offset, int length){
+        if (modelType != ModelType.SMM && (length == 0 || symbols[offset] != stateOutputs[initialState]))
+            return Double.NEGATIVE_INFINITY;
+        double logLikelihood = 0;
+        int state = initialState;
+        int step = stepSize();
+        for (int i = offset + firstStep(); i + step <= offset + length; i += step) {
+            int index = modelType == ModelType.MC ? transition(state, 0, symbols[i]) :
+                    transition(state, symbols[i], symbols[i + 1]);
+            if (index == UNDEFINED)
+                return Double.NEGATIVE_INFINITY;
+            logLikelihood += logProbabilities[index];
+            state = targets[index];
+        }
+        return logLikelihood;
+    }
+
+    /**
+     * Finds the first transition of the sample that is not defined in the model or whose log-probability is below
+     * the threshold. A sample of an MDP or a Markov chain is also anomalous if its initial output differs from the
+     * output of the initial state.
+     * @param symbols array containing symbol ids of the sample
+     * @param offset index of the first symbol of the sample
+     * @param length number of symbols in the sample
+     * @param minLogProbability threshold, negative infinity to detect only undefined transitions
+     * @return position of the output of the first anomalous transition within the sample, or -1
+     */
+    public int findAnomaly(int[] symbols, int offset, int length, double minLogProbability){
+        if (modelType != ModelType.SMM && (length == 0 || symbols[offset] != stateOutputs[initialState]))
+            return 0;
+        int state = initialState;
+        int step = stepSize();
+        for (int i = offset + firstStep(); i + step <= offset + length; i += step) {
+            int index = modelType == ModelType.MC ? transition(state, 0, symbols[i]) :
+                    transition(state, symbols[i], symbols[i + 1]);
+            if (index == UNDEFINED || logProbabilities[index] < minLogProbability)
+                return i + step - 1 - offset;
+            state = targets[index];
+        }
+        return -1;
+    }
+
+    /**
+     * Computes log-likelihoods of a batch of samples.
+     * @param batch samples encoded as [length, symbols...] records, as passed to a SampleSink
+     * @param size number of used ints in the batch
+     * @param results receives the log-likelihood of each record
+     * @return number of samples in the batch
+     */
+    public int logLikelihoods(int[] batch, int size, double[] results){
+        int count = 0;
+        for (int position = 0; position < size; position += batch[position] + 1)
+            results[count++] = logLikelihood(batch, position + 1, batch[position]);
+        return count;
+    }
+
+    /**
+     * Finds anomalies in a batch of samples.
+     * @param batch samples encoded as [length, symbols...] records, as passed to a SampleSink
+     * @param size number of used ints in the batch
+     * @param minLogProbability threshold, negative infinity to detect only undefined transitions
+     * @param positions receives the result of findAnomaly for each record
+     * @return number of anomalous samples in the batch
+     */
+    public int findAnomalies(int[] batch, int size, double minLogProbability, int[] positions){
+        int count = 0, anomalies = 0;
+        for (int position = 0; position < size; position += batch[position] + 1) {
+            int anomaly = findAnomaly(batch, position + 1, batch[position], minLogProbability);
+            positions[count++] = anomaly;
+            if (anomaly >= 0)
+                anomalies++;
+        }
+        return anomalies;
+    }
+
+    /**
+     * Scores all samples of a file and writes the log-likelihood and the first anomaly of each sample on its own
+     * line, in the order of the file.
+     * @param inputPath path to a text or binary input file
+     * @param outputPath path of the output file
+     * @param minLogProbability threshold, negative infinity to detect only undefined transitions
+     * @return number of anomalous samples
+     */
+    public long score(String inputPath, String outputPath, double minLogProbability) throws IOException {
+        // symbols of the model get the same ids in the alphabet, unknown symbols get higher ids
+        Alphabet alphabet = new Alphabet();
+        for (String symbol : symbols)
+            alphabet.getSymbolId(symbol);
+
+        long[] anomalies = {0};
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(Paths.get(outputPath)), 1 << 16)) {
+            SampleSink sink = (sample, offset, length) -> {
+                int anomaly = findAnomaly(sample, offset, length, minLogProbability);
+                if (anomaly >= 0)
+                    anomalies[0]++;
+                try {
+                    writer.write(logLikelihood(sample, offset, length) + "," + anomaly + "\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            if (BinaryTraceFormat.isBinary(inputPath))
+                BinaryTraceFormat.read(inputPath, alphabet, sink);
+            else
+                MappedTraceReader.read(inputPath, alphabet, sink, 1);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return anomalies[0];
+    }
+
+    /**
+     * @param args argument list defined in helpDisplayMessage
+     */
+    public static void main(String[] args) {
+        String modelPath = null, input = null, output = null;
+        ModelType type = null;
+        double threshold = Double.NEGATIVE_INFINITY;
+
+        HashSet<String> argNames = new HashSet<>(Arrays.asList("-model", "-type", "-input", "-output", "-threshold"));
+        if(args.length == 0 || args[0].equals("-help") || args[0].equals("-h") || args[0].equals("--help")){
+            System.out.println(helpDisplayMessage);
+            System.exit(0);
+        }
+        try {
+            for (int i = 0; i < args.length - 1; i += 2) {
+                if (!argNames.contains(args[i])) {
+                    System.out.println("Unrecognized option '" + args[i] + "'.\nRun Use -help to see all arguments.");
+                    System.exit(1);
+                }
+                switch (args[i]) {
+                    case "-model": modelPath = args[i + 1]; break;
+                    case "-type": type = ModelType.valueOf(args[i + 1].toUpperCase()); break;
+                    case "-input": input = args[i + 1]; break;
+                    case "-output": output = args[i + 1]; break;
+                    case "-threshold": threshold = Double.parseDouble(args[i + 1]); break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid argument value: " + e.getMessage() + "\nRun Use -help to see all arguments.");
+            System.exit(1);
+        }
+        if (modelPath == null || type == null || input == null || output == null) {
+            System.out.println("Arguments -model, -type, -input, and -output are mandatory. For more details use -h option.");
+            System.exit(1);
+        }
+
+        try {
+            double start = System.currentTimeMillis();
+            long anomalies = load(modelPath, type).score(input, output, threshold);
+            double timeElapsed = System.currentTimeMillis() - start;
+            System.out.println("Scored samples in " + String.format("%.2f", timeElapsed / 1000) + " seconds, " +
+                    anomalies + " anomalous.");
+        } catch (IOException e) {
+            System.out.println("jAlergia Error: Samples could not be scored.");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,70 @@
+import static java.lang.Math.*;
+
+/**
+ * Hoeffding compatibility check over dense output distributions. Relative frequencies of each input are stored in
+ * arrays indexed by output slots of the alphabet, and sqrt(1/n) is precomputed for each input, so distributions
+ * are compared with a single branch-free loop over outputs instead of merging sparse input/output pairs.
+ * Gives the same results as HoeffdingCompatibilityChecker. It is faster when nodes observe most outputs of
+ * their inputs, while dense arrays cost memory proportional to the number of outputs of an input.
+ */
+public class DenseHoeffdingCompatibilityChecker extends HoeffdingCompatibilityChecker {
+
+    public DenseHoeffdingCompatibilityChecker(double eps){
+        super(eps);
+    }
+
+    @Override
+    public boolean areStatesDifferent(FptaNode a, FptaNode b, ModelType modelType, Alphabet alphabet) {
+        // No data available for any node
+        if (a.getChildren().isEmpty() || b.getChildren().isEmpty())
+            return false;
+
+        DistributionIndex aIndex = a.getDistributionIndex(alphabet);
+        DistributionIndex bIndex = b.getDistributionIndex(alphabet);
+        OutputSlots outputSlots = alphabet.getOutputSlots();
+
+        int i = 0, j = 0;
+        while (i < aIndex.inputCount() && j < bIndex.inputCount()) {
+            int cmp = Integer.compare(aIndex.inputs[i], bIndex.inputs[j]);
+            if (cmp < 0)
+                i++;
+            else if (cmp > 0)
+                j++;
+            else {
+                if (hoeffdingBound(aIndex, i, bIndex, j, outputSlots))
+                    return true;
+                i++;
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hoeffding bound over dense output distributions of one input.
+     * @param a index of the first node
+     * @param aInput position of the input in a
+     * @param b index of the second node
+     * @param bInput position of the input in b
+     * @param outputSlots output slots of the alphabet of the tree
+     * @return true if distributions are different
+     */
+    public boolean hoeffdingBound(DistributionIndex a, int aInput, DistributionIndex b, int bInput,
+                                  OutputSlots outputSlots) {
+        double bound = (a.invSqrtTotals[aInput] + b.invSqrtTotals[bInput]) * log_term;
+        double[] aFreq = a.getDenseFrequencies(aInput, outputSlots);
+        double[] bFreq = b.getDenseFrequencies(bInput, outputSlots);
+
+        // rows built before new outputs were added are shorter, missing outputs have frequency 0
+        int length = min(aFreq.length, bFreq.length);
+        double maxDifference = 0;
+        for (int k = 0; k < length; k++)
+            maxDifference = max(maxDifference, abs(aFreq[k] - bFreq[k]));
+        for (int k = length; k < aFreq.length; k++)
+            maxDifference = max(maxDifference, aFreq[k]);
+        for (int k = length; k < bFreq.length; k++)
+            maxDifference = max(maxDifference, bFreq[k]);
+
+        return maxDifference > bound;
+    }
+}
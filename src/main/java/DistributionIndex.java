@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+/**
+ * Output distributions of a node, grouped by input. Built once from the immutable children of a node,
+ * so that compatibility checks do not have to group input/output pairs on every comparison.
+ * Inputs are sorted, and input/output pairs of each input are sorted and stored in range
+ * [offsets[i], offsets[i + 1]). Within one input, input/output pair ids identify outputs.
+ * For Markov chains there is a single input, Alphabet.NO_INPUT.
+ * Relative frequencies of each input can also be stored densely, indexed by output slots of the alphabet; dense
+ * rows are built on first use.
+ */
+class DistributionIndex {
+    static final DistributionIndex EMPTY = new DistributionIndex(new int[0], new int[0], new int[1],
+            new int[0], new int[0]);
+
+    final int[] inputs;
+    final int[] inputTotals;
+    final int[] offsets;
+    final int[] ios;
+    final int[] counts;
+    // sqrt(1 / inputTotals[i]), used by the Hoeffding bound
+    final double[] invSqrtTotals;
+
+    private volatile double[][] denseFrequencies = null;
+
+    private DistributionIndex(int[] inputs, int[] inputTotals, int[] offsets, int[] ios, int[] counts){
+        this.inputs = inputs;
+        this.inputTotals = inputTotals;
+        this.offsets = offsets;
+        this.ios = ios;
+        this.counts = counts;
+        this.invSqrtTotals = new double[inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+            invSqrtTotals[i] = Math.sqrt(1. / inputTotals[i]);
+    }
+
+    public int inputCount(){
+        return inputs.length;
+    }
+
+    /**
+     * @param input position of the input
+     * @param outputSlots output slots of the alphabet of the tree
+     * @return relative frequencies of outputs of the input, indexed by output slots
+     */
+    public double[] getDenseFrequencies(int input, OutputSlots outputSlots){
+        double[][] dense = denseFrequencies;
+        if (dense == null) {
+            dense = new double[inputs.length][];
+            for (int i = 0; i < inputs.length; i++) {
+                double[] row = new double[outputSlots.slotCount(inputs[i])];
+                double total = inputTotals[i];
+                for (int k = offsets[i]; k < offsets[i + 1]; k++)
+                    row[outputSlots.slots[ios[k]]] = counts[k] / total;
+                dense[i] = row;
+            }
+            denseFrequencies = dense;
+        }
+        return dense[input];
+    }
+
+    /**
+     * @param edges immutable children of a node
+     * @param alphabet alphabet of the tree
+     * @return index of output frequencies per input
+     */
+    static DistributionIndex build(EdgeMap edges, Alphabet alphabet){
+        int size = edges.size();
+        if (size == 0)
+            return EMPTY;
+
+        // sort edges by input, edges with the same input stay ordered by their io id
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++)
+            order[i] = ((long) (alphabet.getIoInput(edges.keyAt(i)) + 1) << 32) | i;
+        Arrays.sort(order);
+
+        int inputCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || (order[i] >>> 32) != (order[i - 1] >>> 32))
+                inputCount++;
+        }
+
+        int[] inputs = new int[inputCount];
+        int[] inputTotals = new int[inputCount];
+        int[] offsets = new int[inputCount + 1];
+        int[] ios = new int[size];
+        int[] counts = new int[size];
+        int group = -1;
+        for (int i = 0; i < size; i++) {
+            int edge = (int) order[i];
+            int input = (int) (order[i] >>> 32) - 1;
+            if (group < 0 || inputs[group] != input) {
+                group++;
+                inputs[group] = input;
+                offsets[group] = i;
+            }
+            ios[i] = edges.keyAt(edge);
+            counts[i] = edges.countAt(edge);
+            inputTotals[group] += counts[i];
+        }
+        offsets[inputCount] = size;
+        return new DistributionIndex(inputs, inputTotals, offsets, ios, counts);
+    }
+}
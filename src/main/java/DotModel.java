@@ -0,0 +1,148 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Model given by its states and transitions with string inputs and outputs, read from a .dot file written by
+ * Parser.saveModel or taken from a LearnedModel.
+ * For MDPs and Markov chains the output of a transition is the label of its target state; for SMMs the output
+ * is part of the transition label.
+ */
+class DotModel {
+    private static final Pattern STATE = Pattern.compile("^(\\S+) \\[shape=\"circle\",label=\"(.*)\"\\];$");
+    private static final Pattern EDGE = Pattern.compile("^(\\S+)->(\\S+) \\[label=\"(.*)\"\\];$");
+    private static final Pattern START = Pattern.compile("^__start0 -> (\\S+)\\s.*$");
+
+    /**
+     * Transition of a state. Input is null for Markov chains.
+     */
+    static class Transition {
+        final int target;
+        final String input;
+        final String output;
+        final double probability;
+
+        Transition(int target, String input, String output, double probability){
+            this.target = target;
+            this.input = input;
+            this.output = output;
+            this.probability = probability;
+        }
+    }
+
+    final ModelType modelType;
+    // output of each state for MDPs and Markov chains, state id for SMMs
+    final List<String> stateLabels = new ArrayList<>();
+    final List<List<Transition>> transitions = new ArrayList<>();
+    int initialState = 0;
+
+    DotModel(ModelType modelType){
+        this.modelType = modelType;
+    }
+
+    public int getStateCount(){
+        return stateLabels.size();
+    }
+
+    private int addState(String label){
+        stateLabels.add(label);
+        transitions.add(new ArrayList<>());
+        return stateLabels.size() - 1;
+    }
+
+    /**
+     * Reads a model saved by Parser.saveModel.
+     * @param path path to the .dot file
+     * @param modelType type of the saved model
+     * @return read model
+     */
+    public static DotModel read(String path, ModelType modelType) throws IOException {
+        DotModel model = new DotModel(modelType);
+        Map<String, Integer> stateIndices = new HashMap<>();
+        List<String[]> edges = new ArrayList<>();
+        String initialStateId = null;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                Matcher matcher;
+                if ((matcher = START.matcher(line)).matches()) {
+                    initialStateId = matcher.group(1);
+                } else if ((matcher = EDGE.matcher(line)).matches()) {
+                    edges.add(new String[]{matcher.group(1), matcher.group(2), matcher.group(3)});
+                } else if ((matcher = STATE.matcher(line)).matches() && !matcher.group(1).equals("__start0")) {
+                    stateIndices.put(matcher.group(1), model.addState(matcher.group(2)));
+                }
+            }
+        }
+
+        for (String[] edge : edges) {
+            Integer source = stateIndices.get(edge[0]);
+            Integer target = stateIndices.get(edge[1]);
+            if (source == null || target == null)
+                throw new IOException("Transition " + edge[0] + "->" + edge[1] + " refers to an undefined state.");
+            String label = edge[2];
+            int separator = label.lastIndexOf(':');
+            try {
+                if (modelType == ModelType.MC) {
+                    model.transitions.get(source).add(new Transition(target, null,
+                            model.stateLabels.get(target), Double.parseDouble(label)));
+                } else if (modelType == ModelType.MDP) {
+                    model.transitions.get(source).add(new Transition(target, label.substring(0, separator),
+                            model.stateLabels.get(target), Double.parseDouble(label.substring(separator + 1))));
+                } else {
+                    String io = label.substring(0, separator);
+                    int slash = io.indexOf('/');
+                    model.transitions.get(source).add(new Transition(target, io.substring(0, slash),
+                            io.substring(slash + 1), Double.parseDouble(label.substring(separator + 1))));
+                }
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IOException("Malformed transition label \"" + label + "\" for model type " +
+                        modelType.name().toLowerCase() + ".", e);
+            }
+        }
+
+        if (model.getStateCount() == 0)
+            throw new IOException("File " + path + " contains no states.");
+        if (initialStateId != null) {
+            Integer initial = stateIndices.get(initialStateId);
+            if (initial == null)
+                throw new IOException("Initial state " + initialStateId + " is not defined.");
+            model.initialState = initial;
+        }
+        return model;
+    }
+
+    /**
+     * @param learnedModel model learned by Alergia
+     * @return the same model with string inputs and outputs
+     */
+    public static DotModel of(LearnedModel learnedModel){
+        ModelType modelType = learnedModel.getModelType();
+        Alphabet alphabet = learnedModel.getAlphabet();
+        DotModel model = new DotModel(modelType);
+        for (int s = 0; s < learnedModel.getStateCount(); s++) {
+            model.addState(modelType != ModelType.SMM ?
+                    alphabet.getSymbol(learnedModel.getState(s).output) : learnedModel.getStateId(s));
+        }
+        for (int s = 0; s < learnedModel.getStateCount(); s++) {
+            EdgeMap children = learnedModel.getTransitions(s);
+            for (int i = 0; i < children.size(); i++) {
+                int io = children.keyAt(i);
+                int input = alphabet.getIoInput(io);
+                model.transitions.get(s).add(new Transition(learnedModel.getStateIndex(children.nodeAt(i)),
+                        input == Alphabet.NO_INPUT ? null : alphabet.getSymbol(input),
+                        alphabet.getSymbol(alphabet.getIoOutput(io)), learnedModel.getProbability(s, i)));
+            }
+        }
+        return model;
+    }
+}
@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -5,187 +6,368 @@ import java.util.*;
  */
 class ParentInputPair {
     FptaNode parent;
-    String inputOutput;
-    public ParentInputPair(FptaNode p, String io){
+    int inputOutput;
+    public ParentInputPair(FptaNode p, int io){
         parent = p;
         inputOutput = io;
     }
 }
 
-
 /**
- * Frequency prefix tree acceptor (FPTA) node class.
- * Each node hold references to its children and other needed information.
+ * Map from input/output pair id to child node and its frequency.
+ * Keys are kept sorted in primitive arrays, so lookups are binary searches without boxing.
  */
-class FptaNode{
-    public static HashMap<String, String> stringCache = new HashMap<>();
+class EdgeMap {
+    private static final int[] EMPTY_INTS = new int[0];
+    private static final FptaNode[] EMPTY_NODES = new FptaNode[0];
 
-    public final String output;
-    public ParentInputPair parentInputPair;
+    private int[] keys = EMPTY_INTS;
+    private FptaNode[] nodes = EMPTY_NODES;
+    private int[] counts = EMPTY_INTS;
+    private int size = 0;
 
-    // mutable
-    public Map<String, FptaNode> children;
-    public Map<String, Integer> inputFrequency;
-    // immutable
-    public Map<String, FptaNode> immutableChildren;
-    public Map<String, Integer> immutableInputFrequency;
+    public int size(){
+        return size;
+    }
 
-    // for writing to file
-    public String stateId;
-    public Map<String, Double> childrenProbability;
+    public boolean isEmpty(){
+        return size == 0;
+    }
 
-    public FptaNode(String o){
-        this.output = o;
-        this.children = new TreeMap<>();
-        this.inputFrequency = new TreeMap<>();
+    /**
+     * @param io input/output pair id
+     * @return index of the key, or (-(insertion point) - 1) if key is not present
+     */
+    public int indexOf(int io){
+        return Arrays.binarySearch(keys, 0, size, io);
+    }
 
-        this.immutableChildren = new TreeMap<>();
-        this.immutableInputFrequency = new TreeMap<>();
+    public boolean containsKey(int io){
+        return indexOf(io) >= 0;
     }
 
+    /**
+     * @return child reached with io, or null if there is none
+     */
+    public FptaNode get(int io){
+        int index = indexOf(io);
+        return index >= 0 ? nodes[index] : null;
+    }
 
-    public Set<String> getInputs(boolean immutable){
-        Map<String, Integer> frequencyMap = immutable ? immutableInputFrequency : inputFrequency;
-        Set<String> inputs = new HashSet<>();
-        for (String key : frequencyMap.keySet()) {
-            String input = Arrays.asList(key.split("/")).get(0);
-            inputs.add(input);
+    /**
+     * @return frequency of io, or 0 if io is not present
+     */
+    public int getCount(int io){
+        int index = indexOf(io);
+        return index >= 0 ? counts[index] : 0;
+    }
+
+    public int keyAt(int index){
+        return keys[index];
+    }
+
+    public FptaNode nodeAt(int index){
+        return nodes[index];
+    }
+
+    public int countAt(int index){
+        return counts[index];
+    }
+
+    public void setNodeAt(int index, FptaNode node){
+        nodes[index] = node;
+    }
+
+    public void addCountAt(int index, int delta){
+        counts[index] += delta;
+    }
+
+    /**
+     * Adds or replaces the child reached with io.
+     */
+    public void put(int io, FptaNode node, int count){
+        int index = indexOf(io);
+        if (index >= 0) {
+            nodes[index] = node;
+            counts[index] = count;
+        } else {
+            insertAt(-index - 1, io, node, count);
+        }
+    }
+
+    /**
+     * Inserts the key at a given index, where index was obtained with indexOf.
+     */
+    public void insertAt(int index, int io, FptaNode node, int count){
+        if (size == keys.length) {
+            int capacity = size + (size >> 1) + 1;
+            keys = Arrays.copyOf(keys, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(nodes, index, nodes, index + 1, size - index);
+        System.arraycopy(counts, index, counts, index + 1, size - index);
+        keys[index] = io;
+        nodes[index] = node;
+        counts[index] = count;
+        size++;
+    }
+
+    /**
+     * @return copy of the map, which can be modified independently
+     */
+    public EdgeMap copy(){
+        EdgeMap copy = new EdgeMap();
+        if (size > 0) {
+            copy.keys = Arrays.copyOf(keys, size);
+            copy.nodes = Arrays.copyOf(nodes, size);
+            copy.counts = Arrays.copyOf(counts, size);
+            copy.size = size;
         }
+        return copy;
+    }
+
+    public Set<Integer> getInputs(Alphabet alphabet){
+        Set<Integer> inputs = new HashSet<>();
+        for (int i = 0; i < size; i++)
+            inputs.add(alphabet.getIoInput(keys[i]));
         return inputs;
     }
 
-    public int getInputFrequency(String targetInput, boolean immutable) {
-        Map<String, Integer> frequencyMap = immutable ? immutableInputFrequency : inputFrequency;
+    public int getInputFrequency(int targetInput, Alphabet alphabet) {
         int frequency = 0;
-        for (Map.Entry<String, Integer> entry : frequencyMap.entrySet()) {
-            String input = Arrays.asList(entry.getKey().split("/")).get(0);
-            int freq = entry.getValue();
-            if (input.equals(targetInput))
-                frequency += freq;
+        for (int i = 0; i < size; i++) {
+            if (alphabet.getIoInput(keys[i]) == targetInput)
+                frequency += counts[i];
         }
         return frequency;
     }
 
-    public Map<String, Integer> getOutputFrequencies(String targetInput, boolean immutable) {
-        Map<String, Integer> frequencyMap = immutable ? immutableInputFrequency : inputFrequency;
-        Map<String, Integer> outputFrequencies = new HashMap<>();
-        for (Map.Entry<String, Integer> entry : frequencyMap.entrySet()) {
-            List<String> inputOutputPair = Arrays.asList(entry.getKey().split("/"));
-            String input = inputOutputPair.get(0);
-            String output = inputOutputPair.get(1);
-            if (input.equals(targetInput))
-                outputFrequencies.put(output, entry.getValue());
+    public Map<Integer, Integer> getOutputFrequencies(int targetInput, Alphabet alphabet) {
+        Map<Integer, Integer> outputFrequencies = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (alphabet.getIoInput(keys[i]) == targetInput)
+                outputFrequencies.put(alphabet.getIoOutput(keys[i]), counts[i]);
         }
         return outputFrequencies;
     }
 
-    public int compareTo(FptaNode other) {
-        // First, compare the lengths of prefix lists
-        int lengthComparison = Integer.compare(this.getPrefix().size(), other.getPrefix().size());
-        if (lengthComparison != 0) {
-            return lengthComparison;
+    /**
+     * Replaces every key with mapping[key] and restores the sorted order of keys.
+     */
+    public void remapKeys(int[] mapping){
+        for (int i = 0; i < size; i++)
+            keys[i] = mapping[keys[i]];
+
+        // insertion sort, as most nodes have only a few children
+        for (int i = 1; i < size; i++) {
+            int key = keys[i];
+            FptaNode node = nodes[i];
+            int count = counts[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                nodes[j + 1] = nodes[j];
+                counts[j + 1] = counts[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            nodes[j + 1] = node;
+            counts[j + 1] = count;
         }
+    }
+
+    /**
+     * @return sum of frequencies of all keys
+     */
+    public int totalCount(){
+        int total = 0;
+        for (int i = 0; i < size; i++)
+            total += counts[i];
+        return total;
+    }
+}
+
+
+/**
+ * Frequency prefix tree acceptor (FPTA) node class.
+ * Each node hold references to its children and other needed information.
+ * Tree is never modified after construction; changes made while learning are recorded in an FptaOverlay.
+ * Inputs, outputs and input/output pairs are represented by their ids in the Alphabet of the tree.
+ */
+class FptaNode{
+    public final int output;
+    public ParentInputPair parentInputPair;
+    // length of the prefix and position of the node in shortlex order of prefixes
+    public int depth;
+    public int rank;
+
+    // immutable, mutable children are kept in FptaOverlay
+    public EdgeMap immutableChildren;
+
+    // output distributions of immutable children, built on first use
+    private DistributionIndex distributionIndex;
+    // last FptaBuilder generation in which frequencies in the subtree of the node changed
+    public int generation;
+
+    public FptaNode(int o){
+        this.output = o;
+        this.immutableChildren = new EdgeMap();
+    }
 
-        // If lengths are equal, compare the strings at each index lexicographically
-        for (int i = 0; i < this.getPrefix().size(); i++) {
-            int strComparison = this.getPrefix().get(i).compareTo(other.getPrefix().get(i));
-            if (strComparison != 0)
-                return strComparison;
+    /**
+     * @return immutable children of the node; nodes of an FptaStore load them on demand
+     */
+    public EdgeMap getChildren(){
+        return immutableChildren;
+    }
+
+    /**
+     * @return output frequencies of immutable children grouped by input
+     */
+    public DistributionIndex getDistributionIndex(Alphabet alphabet){
+        DistributionIndex index = distributionIndex;
+        if (index == null) {
+            index = DistributionIndex.build(immutableChildren, alphabet);
+            distributionIndex = index;
         }
+        return index;
+    }
 
-        // If both lengths and strings are equal, the objects are considered equal
-        return 0;
+    /**
+     * Discards the output distributions, after frequencies of immutable children changed.
+     */
+    public void invalidateDistributionIndex(){
+        distributionIndex = null;
+    }
+
+    /**
+     * Compares nodes by their prefixes: shorter prefixes come first, prefixes of the same length are compared
+     * lexicographically. Uses the shortlex rank assigned during FPTA construction.
+     */
+    public int compareTo(FptaNode other) {
+        return Integer.compare(this.rank, other.rank);
     }
 
     /**
      * @return path from root node to current node
      */
-    public List<String> getPrefix(){
-        Deque<String> prefix = new LinkedList<>();
+    public int[] getPrefix(){
+        int length = 0;
+        for (FptaNode p = this; p.parentInputPair != null; p = p.parentInputPair.parent)
+            length++;
+
+        int[] prefix = new int[length];
         FptaNode p = this;
         while (p.parentInputPair != null) {
-            prefix.addFirst(p.parentInputPair.inputOutput);
+            prefix[--length] = p.parentInputPair.inputOutput;
             p = p.parentInputPair.parent;
         }
-        return new ArrayList<>(prefix);
+        return prefix;
     }
 
     /**
-     * String cache to ensure that same references are used for same strings.
-     * @param str string
-     * @return string instance from String cache
+     * Construct the tree.
+     * @param data list of lists of strings conforming to syntax defined at https://github.com/emuskardin/jAlergia
+     * @param modelType mdp, smm, or mc
+     * @return builder holding the root of the tree and its alphabet
      */
-    static String getFromStrCache(String str){
-        FptaNode.stringCache.putIfAbsent(str, str);
-        return FptaNode.stringCache.get(str);
+    public static FptaBuilder constructFPTA(List<List<String>> data, ModelType modelType){
+        return constructFPTA(data, modelType, 1);
     }
 
     /**
-     * @return successor of the node
+     * Construct the tree.
+     * @param data list of lists of strings conforming to syntax defined at https://github.com/emuskardin/jAlergia
+     * @param modelType mdp, smm, or mc
+     * @param parallelism number of threads inserting samples in the tree
+     * @return builder holding the root of the tree and its alphabet
      */
-    public Collection<? extends FptaNode> getSuccessors() {
-        return this.children.values();
+    public static FptaBuilder constructFPTA(List<List<String>> data, ModelType modelType, int parallelism){
+        return constructFPTA(data, new FptaBuilder(modelType, parallelism));
     }
 
     /**
-     * Construct mutable and immutable trees.
+     * Construct the tree with a configured builder.
      * @param data list of lists of strings conforming to syntax defined at https://github.com/emuskardin/jAlergia
-     * @param modelType mdp, smm, or mc
-     * @return mutable and immutable trees (second tree is set to null in case of memory optimization)
+     * @param builder builder in which samples are inserted
+     * @return builder holding the root of the tree and its alphabet
      */
-    public static FptaNode constructFPTA(List<List<String>> data, ModelType modelType){
-
-        FptaNode rootNode = new FptaNode(FptaNode.getFromStrCache(data.get(0).get(0)));
-        rootNode.parentInputPair = null;
-
-        int startingIndex = modelType != ModelType.SMM ? 1 : 0;
-        int incrementSize = modelType == ModelType.MC ? 1 : 2;
-
-        while (!data.isEmpty()){
-            List<String> sample = data.remove(0);
-            FptaNode currNode = rootNode;
-
-            if (modelType != ModelType.SMM) {
-                if (!sample.get(0).equals(rootNode.output)) {
-                    System.out.println("All initial outputs are not the same.\n" +
-                            "Make data conform to the syntax defines at https://github.com/emuskardin/jAlergia\n" +
-                            "Alternatively add a dummy initial output.\n" +
-                            "Terminating Alergia.");
-                    System.exit(1);
-                }
-            }
-
-            for (int i = startingIndex; i < sample.size() - 1; i += incrementSize) {
-                String io = modelType != ModelType.MC ? sample.get(i) + '/' + sample.get(i + 1) : sample.get(i);
-                
-                io = FptaNode.getFromStrCache(io);
-
-                if (!currNode.children.containsKey(io)) {
-                    String output = FptaNode.getFromStrCache(sample.get(modelType == ModelType.MC ? i : i + startingIndex));
-
-                    FptaNode node = new FptaNode(output);
-                    node.parentInputPair = new ParentInputPair(currNode, io);
-
-                    currNode.children.put(io, node);
-                    currNode.inputFrequency.put(io, 0);
-
-                    currNode.immutableChildren.put(io, node);
-                    currNode.immutableInputFrequency.put(io, 0);
+    public static FptaBuilder constructFPTA(List<List<String>> data, FptaBuilder builder){
+        for (List<String> sample : data)
+            builder.addSample(sample);
+        return builder;
+    }
 
-                }
+    /**
+     * Construct the tree while reading the input file. Samples are inserted one at a time,
+     * so only the tree is kept in memory.
+     * @param path path to input file
+     * @param modelType mdp, smm, or mc
+     * @return builder holding the root of the tree and its alphabet
+     */
+    public static FptaBuilder constructFPTA(String path, ModelType modelType){
+        return constructFPTA(path, modelType, 1);
+    }
 
-                currNode.inputFrequency.put(io, currNode.inputFrequency.get(io) + 1);
-                currNode.immutableInputFrequency.put(io, currNode.immutableInputFrequency.get(io) + 1);
+    /**
+     * Construct the tree while reading the input file. Input file is memory-mapped and tokenized without
+     * creating strings, and samples are inserted as they are read, so only the tree is kept in memory.
+     * Files in the binary trace format are recognized by their header and decoded directly, and FPTA snapshots
+     * are loaded without reconstructing the tree.
+     * @param path path to text or binary input file, or to an FPTA snapshot
+     * @param modelType mdp, smm, or mc
+     * @param parallelism number of threads tokenizing the file and inserting samples in the tree
+     * @return builder holding the root of the tree and its alphabet
+     */
+    public static FptaBuilder constructFPTA(String path, ModelType modelType, int parallelism){
+        return constructFPTA(path, new FptaBuilder(modelType, parallelism));
+    }
 
-                currNode = currNode.children.get(io);
+    /**
+     * Construct the tree with a configured builder while reading the input file. FPTA snapshots are loaded in a
+     * new builder, as they already hold the constructed tree.
+     * @param path path to text or binary input file, or to an FPTA snapshot
+     * @param builder builder in which samples are inserted
+     * @return builder holding the root of the tree and its alphabet
+     * @throws AlergiaException if the file cannot be read or does not match the model type
+     */
+    public static FptaBuilder constructFPTA(String path, FptaBuilder builder){
+        return constructFPTA(path, builder, 0);
+    }
 
-            }
+    /**
+     * Construct the tree with a configured builder while reading the input file. If sortMemory is positive,
+     * samples are sorted and duplicates are collapsed before insertion, and memory used for sorting is bounded by
+     * writing sorted runs to temporary files. Tree is then built in one pass, sharing the path of each sample with
+     * the previous one, which pays off for inputs with many repeated or long common prefixes. Samples are always
+     * sorted for out-of-core builders, with TraceSorter.DEFAULT_MEMORY if sortMemory is 0.
+     * @param path path to text or binary input file, or to an FPTA snapshot
+     * @param builder builder in which samples are inserted
+     * @param sortMemory number of bytes of samples sorted in memory, or 0 to insert samples in the order of the file
+     * @return builder holding the root of the tree and its alphabet
+     * @throws AlergiaException if the file cannot be read or does not match the model type
+     */
+    public static FptaBuilder constructFPTA(String path, FptaBuilder builder, long sortMemory){
+        ModelType modelType = builder.getModelType();
+        try {
+            if (FptaSnapshot.isSnapshot(path)) {
+                builder = FptaSnapshot.load(path, builder);
+                if (builder.getModelType() != modelType)
+                    throw new AlergiaException("FPTA snapshot was constructed for model type " +
+                            builder.getModelType().name().toLowerCase() + ".");
+            } else if (sortMemory > 0 || builder.isOutOfCore())
+                TraceSorter.read(path, builder, sortMemory > 0 ? sortMemory : TraceSorter.DEFAULT_MEMORY);
+            else if (BinaryTraceFormat.isBinary(path))
+                BinaryTraceFormat.read(path, builder);
+            else
+                MappedTraceReader.read(path, builder, builder.getParallelism());
+        } catch (IOException e) {
+            builder.cancel();
+            throw new AlergiaException("Input file could not be opened or is malformed.", e);
         }
-
-        return rootNode;
+        return builder;
     }
 
 }
-
-
-
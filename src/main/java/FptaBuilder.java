@@ -0,0 +1,775 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incrementally constructs the FPTA by inserting one sample at a time.
+ * Enables FPTA construction directly while the input file is being read, so that samples do not
+ * have to be kept in memory.
+ * If parallelism is greater than 1, samples are partitioned by their first input/output pair. Each partition is
+ * inserted in its own subtree by a worker thread, and subtrees are grafted under the root once all samples are
+ * added. The resulting tree is identical to the sequentially constructed one.
+ * Size of the tree can be bounded: samples are truncated at a maximum depth, and subtrees of nodes reached fewer
+ * than minCount times are collapsed into leaves, which keep their frequency in the parent distribution. Collapsing
+ * is exact when done once all samples are added; with a node budget it is also done during construction, after
+ * which collapsed nodes are expanded again only by samples that reach them later.
+ * Out of core, the tree is written to an FptaStore while sorted samples are inserted with their multiplicities,
+ * so that only the path of the last sample is kept on the heap.
+ */
+class FptaBuilder implements SampleSink {
+    // number of ints sent to a worker at once
+    private static final int BATCH_SIZE = 1 << 16;
+
+    private final ModelType modelType;
+    private final int startingIndex;
+    private final int incrementSize;
+    private final int parallelism;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int minCount = 1;
+    private long nodeBudget = 0;
+    // node count at which the tree is collapsed during construction
+    private long collapseThreshold = 0;
+
+    private final Alphabet alphabet;
+    private int[] symbolBuffer = new int[64];
+    private final Inserter inserter = new Inserter();
+    private PrefixInserter prefixInserter = null;
+    // number of nodes cached on the heap by the out-of-core store, or 0 to keep the tree on the heap
+    private int storeCacheSize = 0;
+    private FptaStore store = null;
+    private boolean storeFinished = false;
+    private Shard[] shards = null;
+    private ExecutorService executor = null;
+
+    private FptaNode rootNode = null;
+    // number of input/output pairs whose ids are in lexicographic order
+    private int sortedIoCount = 0;
+    private int nodeCount = 0;
+    private int rankedNodeCount = 0;
+    private int collapsedNodeCount = 0;
+    // sum of (sample size - 1), used for automatic epsilon computation
+    private long sampleSizeSum = 0;
+    // nodes whose subtree receives samples are stamped with the current generation
+    private volatile int generation = 0;
+
+    public FptaBuilder(ModelType modelType){
+        this(modelType, 1);
+    }
+
+    /**
+     * @param modelType mdp, smm, or mc
+     * @param parallelism number of worker threads inserting samples in the tree
+     */
+    public FptaBuilder(ModelType modelType, int parallelism){
+        this.modelType = modelType;
+        this.startingIndex = modelType != ModelType.SMM ? 1 : 0;
+        this.incrementSize = modelType == ModelType.MC ? 1 : 2;
+        this.parallelism = parallelism;
+        this.alphabet = new Alphabet();
+    }
+
+    /**
+     * Continues construction of a previously constructed tree, e.g. one loaded from an FptaSnapshot.
+     * @param modelType mdp, smm, or mc
+     * @param parallelism number of worker threads inserting samples in the tree
+     * @param root root of the tree, with lexicographically sorted input/output pair ids and assigned ranks
+     * @param alphabet alphabet of the tree
+     * @param nodeCount number of nodes in the tree
+     * @param sampleSizeSum sum of (sample size - 1) over samples of the tree
+     * @param store completed store holding the tree, or null if the tree is on the heap
+     */
+    FptaBuilder(ModelType modelType, int parallelism, FptaNode root, Alphabet alphabet, int nodeCount,
+                long sampleSizeSum, FptaStore store){
+        this.modelType = modelType;
+        this.startingIndex = modelType != ModelType.SMM ? 1 : 0;
+        this.incrementSize = modelType == ModelType.MC ? 1 : 2;
+        this.parallelism = parallelism;
+        this.alphabet = alphabet;
+        this.rootNode = root;
+        this.nodeCount = nodeCount;
+        this.rankedNodeCount = nodeCount;
+        this.sortedIoCount = alphabet.getIoCount();
+        this.sampleSizeSum = sampleSizeSum;
+        this.collapsedNodeCount = nodeCount;
+        this.store = store;
+        this.storeFinished = store != null;
+    }
+
+    /**
+     * Samples are inserted only up to the given number of steps, longer samples are truncated.
+     * @param maxDepth maximum depth of the tree
+     */
+    public void setMaxDepth(int maxDepth){
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxDepth(){
+        return maxDepth;
+    }
+
+    /**
+     * Subtrees of nodes reached fewer than minCount times are collapsed into leaves once all samples are added.
+     * @param minCount minimum frequency of a node whose children are kept
+     */
+    public void setMinCount(int minCount){
+        this.minCount = minCount;
+    }
+
+    public int getMinCount(){
+        return minCount;
+    }
+
+    /**
+     * Collapses low-frequency subtrees during construction whenever the tree grows beyond the budget. Frequencies
+     * in subtrees of collapsed nodes are then approximate, as they are rebuilt only from the samples reaching them
+     * after collapsing.
+     * Has no effect if minCount is 1.
+     * @param nodeBudget number of nodes at which the tree is collapsed, or 0 to collapse only at the end
+     */
+    public void setNodeBudget(long nodeBudget){
+        this.nodeBudget = nodeBudget;
+        this.collapseThreshold = nodeBudget;
+    }
+
+    public long getNodeBudget(){
+        return nodeBudget;
+    }
+
+    /**
+     * Keeps the tree in an FptaStore instead of the heap. Samples must then be added with the weighted addSample
+     * in sorted order, such as by TraceSorter; node budget is not applied, and subtrees of nodes reached fewer than
+     * minCount times are collapsed while they are written.
+     * @param cacheSize number of nodes whose children are kept on the heap while learning
+     */
+    public void setOutOfCore(int cacheSize){
+        this.storeCacheSize = cacheSize;
+    }
+
+    public boolean isOutOfCore(){
+        return storeCacheSize > 0;
+    }
+
+    /**
+     * @return number of nodes cached on the heap by the out-of-core store, or 0 if the tree is kept on the heap
+     */
+    public int getCacheSize(){
+        return storeCacheSize;
+    }
+
+    /**
+     * Deletes files of the out-of-core store. Nodes of the tree must not be accessed afterwards.
+     */
+    public void close(){
+        if (store == null)
+            return;
+        try {
+            store.close();
+        } catch (IOException e) {
+            throw new AlergiaException("Out-of-core FPTA files could not be deleted.", e);
+        }
+    }
+
+    /**
+     * Inserts a sample in the tree. First sample determines the output of the root node.
+     * @param sample list of strings conforming to syntax defined at https://github.com/emuskardin/jAlergia
+     */
+    public void addSample(List<String> sample){
+        if (symbolBuffer.length < sample.size())
+            symbolBuffer = new int[Math.max(sample.size(), symbolBuffer.length * 2)];
+        for (int i = 0; i < sample.size(); i++)
+            symbolBuffer[i] = alphabet.getSymbolId(sample.get(i));
+        addSample(symbolBuffer, sample.size());
+    }
+
+    /**
+     * Inserts a sample, given as symbol ids of the alphabet, in the tree.
+     * @param symbols symbol ids of the sample
+     * @param length number of symbols in the sample
+     */
+    public void addSample(int[] symbols, int length){
+        addSample(symbols, 0, length);
+    }
+
+    /**
+     * Inserts a sample, given as symbol ids of the alphabet, in the tree.
+     * @param symbols array containing symbol ids of the sample
+     * @param offset index of the first symbol of the sample
+     * @param length number of symbols in the sample
+     */
+    @Override
+    public void addSample(int[] symbols, int offset, int length){
+        if (isOutOfCore()) {
+            addSample(symbols, offset, length, 1);
+            return;
+        }
+        if (rootNode == null)
+            createRoot(symbols[offset], parallelism > 1);
+        checkInitialOutput(symbols[offset]);
+        sampleSizeSum += length - 1;
+        if (prefixInserter != null)
+            prefixInserter.leave(0);
+
+        if (shards == null) {
+            inserter.insert(rootNode, symbols, offset, length);
+            if (collapseThreshold > 0 && minCount > 1 && getNodeCount() > collapseThreshold) {
+                nodeCount -= collapse(rootNode);
+                collapseThreshold = nextCollapseThreshold(getNodeCount(), nodeBudget);
+            }
+        } else if (startingIndex < length - 1)
+            shards[shardIndex(symbols, offset)].add(symbols, offset, length);
+    }
+
+    /**
+     * Inserts a sample as if it was added multiplicity times. Path of the previous sample added this way is kept,
+     * so only steps after the common prefix of both samples are looked up in the tree, and adding sorted samples
+     * visits each edge of the tree once. Frequencies of edges on the kept path are updated once the path is left.
+     * Samples are inserted sequentially, also if parallelism is greater than 1, and node budget is not applied.
+     * @param symbols array containing symbol ids of the sample
+     * @param offset index of the first symbol of the sample
+     * @param length number of symbols in the sample
+     * @param multiplicity number of occurrences of the sample
+     */
+    public void addSample(int[] symbols, int offset, int length, int multiplicity){
+        if (storeFinished)
+            throw new IllegalStateException("Samples cannot be added to an out-of-core FPTA once it is completed.");
+        if (rootNode == null) {
+            createRoot(symbols[offset], false);
+            if (isOutOfCore()) {
+                try {
+                    store = new FptaStore(storeCacheSize);
+                } catch (IOException e) {
+                    throw new AlergiaException("Out-of-core FPTA files could not be created.", e);
+                }
+            }
+        } else if (shards != null)
+            joinShards();
+        checkInitialOutput(symbols[offset]);
+        sampleSizeSum += (long) (length - 1) * multiplicity;
+
+        if (prefixInserter == null)
+            prefixInserter = new PrefixInserter();
+        prefixInserter.insert(symbols, offset, length, multiplicity);
+    }
+
+    private void createRoot(int output, boolean withShards){
+        rootNode = new FptaNode(output);
+        rootNode.parentInputPair = null;
+        nodeCount++;
+        if (withShards)
+            startShards();
+    }
+
+    private void checkInitialOutput(int output){
+        if (modelType != ModelType.SMM && output != rootNode.output) {
+            cancel();
+            throw new AlergiaException("All initial outputs are not the same.\n" +
+                    "Make data conform to the syntax defines at https://github.com/emuskardin/jAlergia\n" +
+                    "Alternatively add a dummy initial output.");
+        }
+    }
+
+    /**
+     * Inserts a batch of samples. Can be called concurrently from several threads.
+     * @param batch samples encoded as [length, symbols...] records
+     * @param size number of used ints in the batch
+     */
+    @Override
+    public synchronized void addSamples(int[] batch, int size){
+        SampleSink.super.addSamples(batch, size);
+    }
+
+    /**
+     * @return root of the constructed tree
+     */
+    public FptaNode getRoot(){
+        if (rootNode == null)
+            throw new AlergiaException("No samples found in the input data.");
+        if (shards != null)
+            joinShards();
+        if (store != null)
+            return finishStore();
+        if (prefixInserter != null)
+            prefixInserter.leave(0);
+        if (minCount > 1 && collapsedNodeCount != getNodeCount()) {
+            nodeCount -= collapse(rootNode);
+            collapsedNodeCount = getNodeCount();
+        }
+        if (sortedIoCount != alphabet.getIoCount())
+            sortIoIds();
+        if (rankedNodeCount != getNodeCount())
+            assignRanks();
+        return rootNode;
+    }
+
+    /**
+     * Writes the remaining path and the root to the store, and replaces the root with the stored one.
+     */
+    private FptaNode finishStore(){
+        if (storeFinished)
+            return rootNode;
+        try {
+            if (prefixInserter != null)
+                prefixInserter.leave(0);
+            store.writeNode(rootNode, false);
+            sortedIoCount = alphabet.getIoCount();
+            int[] mapping = alphabet.sortIoIds();
+            inserter.clearCache();
+            rootNode = store.finish(rootNode.rank, mapping);
+        } catch (IOException e) {
+            close();
+            throw new AlergiaException("Out-of-core FPTA could not be written.", e);
+        }
+        nodeCount = store.getNodeCount();
+        rankedNodeCount = nodeCount;
+        collapsedNodeCount = nodeCount;
+        storeFinished = true;
+        return rootNode;
+    }
+
+    /**
+     * @return number of nodes in the tree
+     */
+    public int getNodeCount(){
+        return nodeCount + inserter.nodeCount;
+    }
+
+    /**
+     * @return alphabet used to encode inputs and outputs of the tree
+     */
+    public Alphabet getAlphabet(){
+        return alphabet;
+    }
+
+    public ModelType getModelType(){
+        return modelType;
+    }
+
+    public int getParallelism(){
+        return parallelism;
+    }
+
+    /**
+     * @return sum of (sample size - 1) over all inserted samples
+     */
+    public long getSampleSizeSum(){
+        return sampleSizeSum;
+    }
+
+    /**
+     * @return generation with which nodes are currently stamped
+     */
+    public int getGeneration(){
+        return generation;
+    }
+
+    /**
+     * Starts a new generation. Nodes whose subtree receives samples afterwards are stamped with it, which
+     * distinguishes them from nodes unchanged since the previous generation.
+     * @return previous generation
+     */
+    public int advanceGeneration(){
+        return generation++;
+    }
+
+    /**
+     * Renumbers input/output pairs in lexicographic order of their string representation and updates the tree
+     * accordingly. Afterwards, children of each node are ordered lexicographically. Output distributions built
+     * with the previous ids are discarded.
+     */
+    private void sortIoIds(){
+        sortedIoCount = alphabet.getIoCount();
+        int[] mapping = alphabet.sortIoIds();
+        if (mapping == null)
+            return;
+        inserter.clearCache();
+
+        Deque<FptaNode> stack = new ArrayDeque<>();
+        stack.push(rootNode);
+        while (!stack.isEmpty()) {
+            FptaNode node = stack.pop();
+            if (node.parentInputPair != null)
+                node.parentInputPair.inputOutput = mapping[node.parentInputPair.inputOutput];
+            node.immutableChildren.remapKeys(mapping);
+            node.invalidateDistributionIndex();
+            for (int i = 0; i < node.immutableChildren.size(); i++)
+                stack.push(node.immutableChildren.nodeAt(i));
+        }
+    }
+
+    /**
+     * Removes children of nodes reached fewer than minCount times. Only the subtree of root is traversed, so shards
+     * can collapse their own subtrees.
+     * @return number of removed nodes
+     */
+    private int collapse(FptaNode root){
+        int removed = 0;
+        Deque<FptaNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            EdgeMap children = stack.pop().immutableChildren;
+            for (int i = 0; i < children.size(); i++) {
+                FptaNode child = children.nodeAt(i);
+                if (children.countAt(i) >= minCount)
+                    stack.push(child);
+                else if (!child.immutableChildren.isEmpty()) {
+                    removed += subtreeSize(child) - 1;
+                    child.immutableChildren = new EdgeMap();
+                    child.invalidateDistributionIndex();
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static int subtreeSize(FptaNode root){
+        int size = 0;
+        Deque<FptaNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            EdgeMap children = stack.pop().immutableChildren;
+            size++;
+            for (int i = 0; i < children.size(); i++)
+                stack.push(children.nodeAt(i));
+        }
+        return size;
+    }
+
+    /**
+     * If collapsing freed less than half of the budget, the threshold is raised, so that the tree is not
+     * traversed again after every few samples.
+     */
+    private static long nextCollapseThreshold(long remaining, long budget){
+        return remaining > budget / 2 ? 2 * remaining : budget;
+    }
+
+    /**
+     * Assigns shortlex ranks to all nodes. As children are ordered lexicographically, breadth-first order of
+     * the tree is the shortlex order of node prefixes.
+     */
+    private void assignRanks(){
+        rankedNodeCount = getNodeCount();
+        Queue<FptaNode> queue = new ArrayDeque<>();
+        queue.add(rootNode);
+        int rank = 0;
+        while (!queue.isEmpty()) {
+            FptaNode node = queue.poll();
+            node.rank = rank++;
+            for (int i = 0; i < node.immutableChildren.size(); i++)
+                queue.add(node.immutableChildren.nodeAt(i));
+        }
+    }
+
+    /**
+     * @return index of the shard receiving the sample, determined by its first input/output pair
+     */
+    private int shardIndex(int[] symbols, int offset){
+        int first = offset + startingIndex;
+        long key = modelType == ModelType.MC ? symbols[first] : Alphabet.ioKey(symbols[first], symbols[first + 1]);
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 33) % parallelism);
+    }
+
+    private void startShards(){
+        executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "fpta-builder");
+            t.setDaemon(true);
+            return t;
+        });
+        shards = new Shard[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            shards[i] = new Shard();
+            shards[i].future = executor.submit(shards[i]);
+        }
+    }
+
+    /**
+     * Stops workers and deletes files of the out-of-core store after construction failed. Samples not yet inserted
+     * by workers are discarded.
+     */
+    void cancel(){
+        if (executor != null)
+            executor.shutdownNow();
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                // files are deleted on exit, the failure of construction is reported instead
+            }
+        }
+    }
+
+    /**
+     * Waits for all workers to insert their samples and grafts their subtrees under the root.
+     * Samples added afterwards are inserted sequentially.
+     */
+    private void joinShards(){
+        for (Shard shard : shards) {
+            shard.flush();
+            shard.send(new int[0]);
+        }
+        for (Shard shard : shards) {
+            shard.join();
+
+            // first input/output pairs are disjoint between shards
+            EdgeMap edges = shard.root.immutableChildren;
+            for (int i = 0; i < edges.size(); i++) {
+                FptaNode child = edges.nodeAt(i);
+                child.parentInputPair.parent = rootNode;
+                rootNode.immutableChildren.put(edges.keyAt(i), child, edges.countAt(i));
+            }
+            nodeCount += shard.inserter.nodeCount;
+        }
+        executor.shutdown();
+        executor = null;
+        shards = null;
+    }
+
+    /**
+     * Inserts samples in a tree. Keeps a local cache of input/output pair ids, so that the shared alphabet is
+     * accessed only for previously unseen pairs.
+     * Nodes whose children frequencies change are stamped with the current generation, and their output
+     * distributions are discarded.
+     */
+    private final class Inserter {
+        private LongIntMap ioCache = new LongIntMap();
+        int nodeCount = 0;
+
+        void insert(FptaNode root, int[] symbols, int offset, int length){
+            FptaNode currNode = root;
+            int end = offset + length - 1;
+            int currentGeneration = generation;
+            for (int i = offset + startingIndex; i < end; i += incrementSize) {
+                if (currNode.depth >= maxDepth)
+                    break;
+                currNode.generation = currentGeneration;
+                currNode.invalidateDistributionIndex();
+                int io = modelType != ModelType.MC ? getIoId(symbols[i], symbols[i + 1]) :
+                        getIoId(Alphabet.NO_INPUT, symbols[i]);
+
+                int index = currNode.immutableChildren.indexOf(io);
+                FptaNode child;
+                if (index < 0) {
+                    child = new FptaNode(symbols[modelType == ModelType.MC ? i : i + startingIndex]);
+                    child.parentInputPair = new ParentInputPair(currNode, io);
+                    child.depth = currNode.depth + 1;
+                    nodeCount++;
+
+                    currNode.immutableChildren.insertAt(-index - 1, io, child, 1);
+                } else {
+                    child = currNode.immutableChildren.nodeAt(index);
+                    currNode.immutableChildren.addCountAt(index, 1);
+                }
+
+                currNode = child;
+            }
+        }
+
+        private int getIoId(int input, int output){
+            long key = Alphabet.ioKey(input, output);
+            int io = ioCache.get(key);
+            if (io < 0) {
+                io = alphabet.getIoId(input, output);
+                ioCache.put(key, io);
+            }
+            return io;
+        }
+
+        void clearCache(){
+            ioCache = new LongIntMap();
+        }
+    }
+
+    /**
+     * Inserts samples with multiplicities along the kept path of the previous sample. Edges on the path are
+     * counted lazily: the total multiplicity of inserted samples is recorded when an edge is entered, and the
+     * difference to the total when the edge is left is added to its frequency, as exactly the samples added
+     * in between passed through it.
+     */
+    private final class PrefixInserter {
+        // path[d] is the node at depth d of the kept path, ios[d] the pair of the edge leading to it, and entered[d]
+        // the total multiplicity when the edge was entered
+        private FptaNode[] path = new FptaNode[64];
+        private int[] ios = new int[64];
+        private long[] entered = new long[64];
+        private int depth = 0;
+        private long total = 0;
+        private int[] previous = new int[64];
+
+        void insert(int[] symbols, int offset, int length, int multiplicity){
+            path[0] = rootNode;
+            int end = offset + length - 1;
+            int i = offset + startingIndex;
+            int common = 0;
+            while (common < depth && i < end && sameStep(symbols, i, i - offset)) {
+                common++;
+                i += incrementSize;
+            }
+            leave(common);
+
+            FptaNode node = path[depth];
+            for (; i < end && node.depth < maxDepth; i += incrementSize) {
+                int io = modelType != ModelType.MC ? inserter.getIoId(symbols[i], symbols[i + 1]) :
+                        inserter.getIoId(Alphabet.NO_INPUT, symbols[i]);
+                int index = node.immutableChildren.indexOf(io);
+                FptaNode child;
+                if (index < 0) {
+                    child = new FptaNode(symbols[modelType == ModelType.MC ? i : i + startingIndex]);
+                    child.parentInputPair = new ParentInputPair(node, io);
+                    child.depth = node.depth + 1;
+                    nodeCount++;
+                    node.immutableChildren.insertAt(-index - 1, io, child, 0);
+                } else {
+                    child = node.immutableChildren.nodeAt(index);
+                    if (store != null && FptaStore.isWritten(child))
+                        throw new AlergiaException("Out-of-core FPTA requires samples to be added in sorted order.");
+                }
+                enter(child, io);
+                node = child;
+            }
+            total += multiplicity;
+
+            if (previous.length < length)
+                previous = new int[Math.max(length, previous.length * 2)];
+            System.arraycopy(symbols, offset, previous, 0, length);
+        }
+
+        private boolean sameStep(int[] symbols, int i, int p){
+            if (symbols[i] != previous[p])
+                return false;
+            return modelType == ModelType.MC || symbols[i + 1] == previous[p + 1];
+        }
+
+        private void enter(FptaNode child, int io){
+            if (++depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+                ios = Arrays.copyOf(ios, depth * 2);
+                entered = Arrays.copyOf(entered, depth * 2);
+            }
+            path[depth] = child;
+            ios[depth] = io;
+            entered[depth] = total;
+        }
+
+        /**
+         * Leaves the path up to the given depth, adding frequencies of left edges. Subtrees of left edges are
+         * complete, so they are written if the tree is out of core.
+         */
+        void leave(int toDepth){
+            while (depth > toDepth) {
+                FptaNode parent = path[depth - 1];
+                EdgeMap children = parent.immutableChildren;
+                int index = children.indexOf(ios[depth]);
+                children.addCountAt(index, (int) (total - entered[depth]));
+                parent.generation = generation;
+                parent.invalidateDistributionIndex();
+                if (store != null) {
+                    try {
+                        store.writeNode(path[depth], children.countAt(index) < minCount);
+                    } catch (IOException e) {
+                        close();
+                        throw new AlergiaException("Out-of-core FPTA could not be written.", e);
+                    }
+                }
+                path[depth--] = null;
+            }
+        }
+    }
+
+    /**
+     * Subtree of samples sharing a partition of first input/output pairs, built by a worker thread.
+     * Samples are sent to the worker in batches of [length, symbols...] records; a negative length ends a batch.
+     */
+    private final class Shard implements Callable<Void> {
+        final FptaNode root = new FptaNode(rootNode.output);
+        final Inserter inserter = new Inserter();
+        private long collapseThreshold = FptaBuilder.this.collapseThreshold / parallelism;
+        final BlockingQueue<int[]> queue = new ArrayBlockingQueue<>(4);
+        Future<Void> future;
+
+        private int[] batch = new int[BATCH_SIZE];
+        private int batchSize = 0;
+
+        void add(int[] symbols, int offset, int length){
+            if (batchSize + length + 1 > batch.length)
+                flush();
+            if (length + 1 > batch.length)
+                batch = new int[length + 1];
+            batch[batchSize++] = length;
+            System.arraycopy(symbols, offset, batch, batchSize, length);
+            batchSize += length;
+        }
+
+        void flush(){
+            if (batchSize == 0)
+                return;
+            if (batchSize < batch.length)
+                batch[batchSize] = -1;
+            send(batch);
+            batch = new int[BATCH_SIZE];
+            batchSize = 0;
+        }
+
+        void send(int[] data){
+            try {
+                while (!queue.offer(data, 100, TimeUnit.MILLISECONDS)) {
+                    // worker stopped before the end of samples, so it failed
+                    if (future.isDone()) {
+                        join();
+                        cancel();
+                        throw new AlergiaException("FPTA construction failed, as a worker stopped.");
+                    }
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new AlergiaException("FPTA construction was interrupted.", e);
+            }
+        }
+
+        /**
+         * Waits for the worker to finish. If it failed, construction is cancelled and its failure is reported.
+         */
+        void join(){
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new AlergiaException("FPTA construction was interrupted.", e);
+            } catch (ExecutionException e) {
+                cancel();
+                throw new AlergiaException("FPTA construction failed.", e.getCause());
+            }
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            while (true) {
+                int[] data = queue.take();
+                if (data.length == 0)
+                    return null;
+                int position = 0;
+                while (position < data.length && data[position] >= 0) {
+                    int length = data[position];
+                    inserter.insert(root, data, position + 1, length);
+                    position += length + 1;
+                }
+                if (collapseThreshold > 0 && minCount > 1 && inserter.nodeCount > collapseThreshold) {
+                    inserter.nodeCount -= collapse(root);
+                    collapseThreshold = nextCollapseThreshold(inserter.nodeCount, nodeBudget / parallelism);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mutable view of an immutable FPTA, used while merging and folding.
+ * Nodes are read from the immutable tree until they are modified for the first time; only then their children are
+ * copied to the overlay. As most nodes are never modified by fold, the mutable tree costs only a fraction of the
+ * memory of the immutable one.
+ */
+class FptaOverlay {
+    private final FptaNode root;
+    private final Map<FptaNode, EdgeMap> modified = new IdentityHashMap<>();
+
+    public FptaOverlay(FptaNode root){
+        this.root = root;
+    }
+
+    public FptaNode getRoot(){
+        return root;
+    }
+
+    /**
+     * @return mutable children of the node; must not be modified
+     */
+    public EdgeMap getChildren(FptaNode node){
+        EdgeMap children = modified.get(node);
+        return children != null ? children : node.getChildren();
+    }
+
+    /**
+     * @return mutable children of the node, copied from the immutable tree on first modification
+     */
+    public EdgeMap getModifiableChildren(FptaNode node){
+        return modified.computeIfAbsent(node, n -> n.getChildren().copy());
+    }
+
+    /**
+     * @return successors of the node
+     */
+    public List<FptaNode> getSuccessors(FptaNode node){
+        EdgeMap children = getChildren(node);
+        List<FptaNode> successors = new ArrayList<>(children.size());
+        for (int i = 0; i < children.size(); i++)
+            successors.add(children.nodeAt(i));
+        return successors;
+    }
+
+    /**
+     * @return number of nodes whose children were modified
+     */
+    public int getModifiedCount(){
+        return modified.size();
+    }
+}
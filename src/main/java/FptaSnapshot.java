@@ -0,0 +1,285 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Saves the immutable FPTA to a file and loads it in later runs, so that the tree does not have to be
+ * reconstructed from samples when only epsilon or the compatibility checker changes.
+ * Nodes are stored in breadth-first order, which is also their shortlex rank order, as records of
+ * [output, number of children, input/output pair, frequency], where the pair and frequency are those of the edge
+ * leading to the node, and 0 for the root. Children of a node are the next nodes in breadth-first order, so no
+ * references are stored. Records are written and read sequentially, so neither saving nor loading buffers the
+ * whole tree, and trees of out-of-core builders are loaded in a new FptaStore.
+ * Header contains MAGIC, VERSION, model type, sum of sample sizes, and the alphabet.
+ */
+class FptaSnapshot {
+    static final byte[] MAGIC = {'J', 'A', 'F', 'S'};
+    static final int VERSION = 2;
+
+    // largest region of the file mapped for reading the header
+    private static final long MAX_REGION_SIZE = 1L << 30;
+    private static final int RECORD_SIZE = 4 * Integer.BYTES;
+
+    private FptaSnapshot(){}
+
+    /**
+     * @return true if the file starts with MAGIC
+     */
+    public static boolean isSnapshot(String path) throws IOException {
+        return BinaryTraceFormat.hasHeader(path, MAGIC);
+    }
+
+    /**
+     * Writes the tree of the builder to a snapshot file.
+     * @param builder builder holding the constructed tree
+     * @param path path of the snapshot file
+     */
+    public static void save(FptaBuilder builder, String path) throws IOException {
+        FptaNode root = builder.getRoot();
+        Alphabet alphabet = builder.getAlphabet();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(path)), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(builder.getModelType().ordinal());
+            out.writeLong(builder.getSampleSizeSum());
+
+            out.writeInt(alphabet.getSymbolCount());
+            for (int i = 0; i < alphabet.getSymbolCount(); i++) {
+                byte[] symbol = alphabet.getSymbol(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(symbol.length);
+                out.write(symbol);
+            }
+            out.writeInt(alphabet.getIoCount());
+            for (int i = 0; i < alphabet.getIoCount(); i++) {
+                out.writeInt(alphabet.getIoInput(i));
+                out.writeInt(alphabet.getIoOutput(i));
+            }
+
+            out.writeInt(builder.getNodeCount());
+            // records of children are written when their parent is dequeued, so that the children of each node
+            // are accessed once also for stored trees
+            EdgeMap rootChildren = root.getChildren();
+            writeRecord(out, root.output, rootChildren.size(), 0, 0);
+            Queue<EdgeMap> queue = new ArrayDeque<>();
+            queue.add(rootChildren);
+            while (!queue.isEmpty()) {
+                EdgeMap children = queue.poll();
+                for (int i = 0; i < children.size(); i++) {
+                    FptaNode child = children.nodeAt(i);
+                    EdgeMap grandchildren = child.getChildren();
+                    writeRecord(out, child.output, grandchildren.size(), children.keyAt(i), children.countAt(i));
+                    if (!grandchildren.isEmpty())
+                        queue.add(grandchildren);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the tree from a snapshot file. If the given builder is out of core, the tree is written to a new
+     * FptaStore instead of the heap. Subtrees beyond maxDepth and of nodes reached fewer than minCount times are
+     * not loaded, which gives the same tree as constructing it with these limits from the samples.
+     * @param path path of the snapshot file
+     * @param builder configured builder, whose parallelism, limits and out-of-core cache size are used
+     * @return builder holding the loaded tree, to which further samples can be added if it is on the heap
+     */
+    public static FptaBuilder load(String path, FptaBuilder builder) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), MAX_REGION_SIZE));
+            for (byte b : MAGIC) {
+                if (header.get() != b)
+                    throw new IOException("File " + path + " is not a jAlergia FPTA snapshot.");
+            }
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported FPTA snapshot version " + version + ".");
+            ModelType modelType = ModelType.values()[header.getInt()];
+            long sampleSizeSum = header.getLong();
+
+            Alphabet alphabet = new Alphabet();
+            int symbolCount = header.getInt();
+            for (int i = 0; i < symbolCount; i++) {
+                byte[] symbol = new byte[header.getInt()];
+                header.get(symbol);
+                alphabet.getSymbolId(new String(symbol, StandardCharsets.UTF_8));
+            }
+            // pairs were stored in sorted order, so they get the same ids
+            int ioCount = header.getInt();
+            for (int i = 0; i < ioCount; i++)
+                alphabet.getIoId(header.getInt(), header.getInt());
+
+            int nodeCount = header.getInt();
+            FptaStore store = builder.isOutOfCore() ? new FptaStore(builder.getCacheSize()) : null;
+            try {
+                RecordReader records = new RecordReader(channel, header.position());
+                Parents parents = new Parents(new RecordReader(channel, header.position()), builder.getMaxDepth(),
+                        builder.getMinCount());
+                // nodes on the heap whose children are not read yet, in breadth-first order
+                Queue<FptaNode> queue = new ArrayDeque<>();
+                FptaNode root = null;
+                FptaNode parent = null;
+                int loadedCount = 0;
+                int firstEdge = 0;
+                for (int i = 0; i < nodeCount; i++) {
+                    records.next();
+                    int depth = 0;
+                    if (i > 0) {
+                        if (parents.next() && parents.keepsChildren && store == null)
+                            parent = queue.poll();
+                        if (!parents.keepsChildren)
+                            continue;
+                        depth = parents.depth + 1;
+                    }
+                    boolean keepsChildren = parents.keepsChildren(i, depth, records.frequency);
+                    int childCount = keepsChildren ? records.childCount : 0;
+                    int index = loadedCount++;
+
+                    if (store != null) {
+                        // children of a node are the next nodes, so its edges are the next edges, and the edge
+                        // leading to the i-th node is the (i - 1)-th edge
+                        store.appendNode(records.output, childCount, firstEdge);
+                        firstEdge += childCount;
+                        if (i > 0)
+                            store.appendEdge(records.io, records.frequency, index);
+                        continue;
+                    }
+                    FptaNode node = new FptaNode(records.output);
+                    node.rank = index;
+                    if (i == 0) {
+                        node.parentInputPair = null;
+                        root = node;
+                    } else {
+                        node.parentInputPair = new ParentInputPair(parent, records.io);
+                        node.depth = depth;
+                        EdgeMap children = parent.immutableChildren;
+                        children.insertAt(children.size(), records.io, node, records.frequency);
+                    }
+                    if (childCount > 0)
+                        queue.add(node);
+                }
+                if (store != null)
+                    root = store.finish(0, null);
+
+                FptaBuilder loaded = new FptaBuilder(modelType, builder.getParallelism(), root, alphabet,
+                        loadedCount, sampleSizeSum, store);
+                loaded.setOutOfCore(builder.getCacheSize());
+                loaded.setMaxDepth(builder.getMaxDepth());
+                loaded.setMinCount(builder.getMinCount());
+                loaded.setNodeBudget(builder.getNodeBudget());
+                return loaded;
+            } catch (IOException | RuntimeException e) {
+                if (store != null)
+                    store.close();
+                throw e;
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, int output, int childCount, int io, int frequency)
+            throws IOException {
+        out.writeInt(output);
+        out.writeInt(childCount);
+        out.writeInt(io);
+        out.writeInt(frequency);
+    }
+
+    /**
+     * Follows the parents of nodes read in breadth-first order, as children of a node are the next nodes without
+     * a parent. Like FptaBuilder, children of nodes at maxDepth or reached fewer than minCount times are dropped.
+     * Frequencies do not increase along paths, so a node reached at least minCount times is not within a dropped
+     * subtree, and its ancestors need not be checked.
+     */
+    private static final class Parents {
+        private final RecordReader records;
+        private final int maxDepth;
+        private final int minCount;
+        private int index = -1;
+        // breadth-first index at which the next depth starts, and number of nodes at the next depth seen so far
+        private int levelEnd = 1;
+        private int nextLevelSize = 0;
+        int depth = 0;
+        boolean keepsChildren;
+        private int remaining = 0;
+
+        Parents(RecordReader records, int maxDepth, int minCount){
+            this.records = records;
+            this.maxDepth = maxDepth;
+            this.minCount = minCount;
+        }
+
+        /**
+         * Moves to the parent of the next node.
+         * @return true if the parent differs from the parent of the previous node
+         */
+        boolean next() throws IOException {
+            boolean moved = false;
+            while (remaining == 0) {
+                if (++index == levelEnd) {
+                    depth++;
+                    levelEnd += nextLevelSize;
+                    nextLevelSize = 0;
+                }
+                records.next();
+                nextLevelSize += records.childCount;
+                remaining = records.childCount;
+                keepsChildren = keepsChildren(index, depth, records.frequency);
+                moved = true;
+            }
+            remaining--;
+            return moved;
+        }
+
+        boolean keepsChildren(int index, int depth, int frequency){
+            return depth < maxDepth && (index == 0 || frequency >= minCount);
+        }
+    }
+
+    /**
+     * Reads node records sequentially through a buffer of its own, so that several readers can traverse the
+     * records of one file at different positions.
+     */
+    private static final class RecordReader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE << 12);
+        private long position;
+        int output;
+        int childCount;
+        int io;
+        int frequency;
+
+        RecordReader(FileChannel channel, long position){
+            this.channel = channel;
+            this.position = position;
+            buffer.limit(0);
+        }
+
+        void next() throws IOException {
+            if (buffer.remaining() < RECORD_SIZE) {
+                buffer.compact();
+                while (buffer.position() < RECORD_SIZE) {
+                    int read = channel.read(buffer, position);
+                    if (read < 0)
+                        throw new EOFException("FPTA snapshot is truncated.");
+                    position += read;
+                }
+                buffer.flip();
+            }
+            output = buffer.getInt();
+            childCount = buffer.getInt();
+            io = buffer.getInt();
+            frequency = buffer.getInt();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Array of ints stored in a memory-mapped file. File is mapped in regions, as mapped buffers are limited to 2GB.
+ * Reads use absolute positions, so they can be done concurrently from several threads.
+ */
+class MappedIntArray {
+    private static final int REGION_SHIFT = 27;
+    private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+
+    private final IntBuffer[] regions;
+
+    /**
+     * Maps the file, which is extended to hold length ints if needed.
+     */
+    MappedIntArray(Path path, long length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long size = length * Integer.BYTES;
+            if (file.length() < size)
+                file.setLength(size);
+            FileChannel channel = file.getChannel();
+            regions = new IntBuffer[(int) ((length + REGION_MASK) >>> REGION_SHIFT)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = (long) i << REGION_SHIFT;
+                long ints = Math.min(length - start, 1L << REGION_SHIFT);
+                regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, start * Integer.BYTES,
+                        ints * Integer.BYTES).asIntBuffer();
+            }
+        }
+    }
+
+    int get(long index){
+        return regions[(int) (index >>> REGION_SHIFT)].get((int) (index & REGION_MASK));
+    }
+
+    void set(long index, int value){
+        regions[(int) (index >>> REGION_SHIFT)].put((int) (index & REGION_MASK), value);
+    }
+}
+
+/**
+ * Children of a stored node loaded on the heap, together with their output distributions.
+ */
+final class StoredChildren {
+    final EdgeMap children;
+    private volatile DistributionIndex distributionIndex;
+
+    StoredChildren(EdgeMap children){
+        this.children = children;
+    }
+
+    DistributionIndex getDistributionIndex(Alphabet alphabet){
+        DistributionIndex index = distributionIndex;
+        if (index == null) {
+            index = DistributionIndex.build(children, alphabet);
+            distributionIndex = index;
+        }
+        return index;
+    }
+}
+
+/**
+ * Node of an FPTA kept in an FptaStore. Children are loaded from the store on each access, unless they are cached.
+ */
+final class StoredFptaNode extends FptaNode {
+    final FptaStore store;
+    final int index;
+    // children of nodes near the root are kept by the node itself
+    volatile StoredChildren pinnedChildren;
+
+    StoredFptaNode(FptaStore store, int index, int output){
+        super(output);
+        this.store = store;
+        this.index = index;
+        // children are only accessed through getChildren
+        this.immutableChildren = null;
+    }
+
+    @Override
+    public EdgeMap getChildren(){
+        return store.getChildren(this).children;
+    }
+
+    @Override
+    public DistributionIndex getDistributionIndex(Alphabet alphabet){
+        return store.getChildren(this).getDistributionIndex(alphabet);
+    }
+}
+
+/**
+ * Out-of-core FPTA, whose nodes and edges are kept in memory-mapped temporary files instead of the heap.
+ * Tree is written by FptaBuilder while sorted samples are inserted: once the path of the previous sample is left,
+ * its subtree receives no further samples, so its nodes are written and removed from the heap. Trees loaded from
+ * an FptaSnapshot are written in breadth-first order instead. Nodes are written in
+ * post-order, each as a record of [output, number of children, first edge, rank], and edges of each node are
+ * consecutive [input/output pair, frequency, child] records. Once all nodes are written, ranks are assigned in
+ * breadth-first order, while edges are renumbered to sorted input/output pair ids.
+ * While learning, nodes are created on first access. Node objects are canonical as long as they are referenced,
+ * as learning compares nodes by identity. Children of nodes with the lowest ranks, which are near the root and
+ * accessed by most compatibility tests, are kept on the heap, and children of other nodes are kept in a bounded
+ * least recently used cache. Heap usage is thus bounded by the caches and by nodes referenced by the learning run,
+ * such as those modified by folding, rather than by the size of the tree.
+ */
+class FptaStore implements AutoCloseable {
+    private static final int NODE_SIZE = 4;
+    private static final int EDGE_SIZE = 3;
+
+    private final Path directory;
+    private final int cacheSize;
+    private DataOutputStream nodeOutput;
+    private DataOutputStream edgeOutput;
+    private int writtenNodes = 0;
+    private int writtenEdges = 0;
+
+    private MappedIntArray nodes;
+    private MappedIntArray edges;
+    private int nodeCount;
+    // open addressing table of references to canonical nodes, keyed by node index
+    private NodeReference[] references = new NodeReference[1024];
+    private int referenceCount = 0;
+    private final ReferenceQueue<StoredFptaNode> collected = new ReferenceQueue<>();
+    private Map<StoredFptaNode, StoredChildren> cache;
+
+    /**
+     * Creates the store in a new temporary directory, which is deleted when the store is closed.
+     * @param cacheSize number of nodes whose children are kept on the heap while learning, half of them being
+     * the nodes nearest to the root
+     */
+    FptaStore(int cacheSize) throws IOException {
+        this.cacheSize = cacheSize;
+        this.directory = Files.createTempDirectory("jalergia");
+        directory.toFile().deleteOnExit();
+        nodeOutput = openOutput(directory.resolve("nodes"));
+        edgeOutput = openOutput(directory.resolve("edges"));
+    }
+
+    private static DataOutputStream openOutput(Path path) throws IOException {
+        path.toFile().deleteOnExit();
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+    }
+
+    /**
+     * Writes a node whose subtree is complete. Children of the node must have been written before, and their
+     * indices are read from their rank. Afterwards, rank of the node holds its index and its children are removed.
+     * @param node node to write
+     * @param collapsed true to write the node without children
+     */
+    void writeNode(FptaNode node, boolean collapsed) throws IOException {
+        EdgeMap children = node.immutableChildren;
+        int childCount = collapsed ? 0 : children.size();
+        appendNode(node.output, childCount, writtenEdges);
+        for (int i = 0; i < childCount; i++)
+            appendEdge(children.keyAt(i), children.countAt(i), children.nodeAt(i).rank);
+        node.rank = writtenNodes - 1;
+        node.immutableChildren = null;
+    }
+
+    /**
+     * Writes the record of the next node, e.g. of a tree read in breadth-first order from an FptaSnapshot.
+     * @param firstEdge index of the first of the childCount consecutive edges of the node
+     */
+    void appendNode(int output, int childCount, int firstEdge) throws IOException {
+        nodeOutput.writeInt(output);
+        nodeOutput.writeInt(childCount);
+        nodeOutput.writeInt(firstEdge);
+        nodeOutput.writeInt(0);
+        writtenNodes++;
+    }
+
+    /**
+     * Writes the record of the next edge.
+     * @param child index of the node the edge leads to
+     */
+    void appendEdge(int io, int frequency, int child) throws IOException {
+        edgeOutput.writeInt(io);
+        edgeOutput.writeInt(frequency);
+        edgeOutput.writeInt(child);
+        writtenEdges++;
+    }
+
+    /**
+     * @return true if the node was written, so it cannot receive further samples
+     */
+    static boolean isWritten(FptaNode node){
+        return node.immutableChildren == null;
+    }
+
+    /**
+     * Completes the store once the root was written. Nodes reachable from the root are ranked in breadth-first
+     * order, with children ordered by their renumbered input/output pair ids.
+     * @param rootIndex index of the written root
+     * @param mapping mapping from old to new input/output pair ids, or null if ids did not change
+     * @return root of the stored tree
+     */
+    FptaNode finish(int rootIndex, int[] mapping) throws IOException {
+        nodeOutput.close();
+        edgeOutput.close();
+        nodeOutput = null;
+        edgeOutput = null;
+        nodes = new MappedIntArray(directory.resolve("nodes"), (long) writtenNodes * NODE_SIZE);
+        edges = new MappedIntArray(directory.resolve("edges"), (long) writtenEdges * EDGE_SIZE);
+
+        Path queuePath = directory.resolve("queue");
+        MappedIntArray queue = new MappedIntArray(queuePath, writtenNodes);
+        int tail = 0;
+        queue.set(tail++, rootIndex);
+        int[] order = new int[16];
+        int[][] edge = new int[EDGE_SIZE][16];
+        for (int head = 0; head < tail; head++) {
+            int node = queue.get(head);
+            long base = (long) node * NODE_SIZE;
+            nodes.set(base + 3, head);
+            int childCount = nodes.get(base + 1);
+            long firstEdge = nodes.get(base + 2);
+            if (childCount > order.length) {
+                order = new int[childCount];
+                edge = new int[EDGE_SIZE][childCount];
+            }
+            for (int i = 0; i < childCount; i++) {
+                for (int f = 0; f < EDGE_SIZE; f++)
+                    edge[f][i] = edges.get((firstEdge + i) * EDGE_SIZE + f);
+                if (mapping != null)
+                    edge[0][i] = mapping[edge[0][i]];
+                // insertion sort, as most nodes have only a few children
+                int j = i - 1;
+                while (j >= 0 && edge[0][order[j]] > edge[0][i]) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = i;
+            }
+            for (int i = 0; i < childCount; i++) {
+                for (int f = 0; f < EDGE_SIZE; f++)
+                    edges.set((firstEdge + i) * EDGE_SIZE + f, edge[f][order[i]]);
+                queue.set(tail++, edge[2][order[i]]);
+            }
+        }
+        nodeCount = tail;
+        queue = null;
+        Files.deleteIfExists(queuePath);
+
+        int lruSize = Math.max(cacheSize - cacheSize / 2, 1);
+        cache = new LinkedHashMap<StoredFptaNode, StoredChildren>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StoredFptaNode, StoredChildren> eldest){
+                return size() > lruSize;
+            }
+        };
+        return getNode(rootIndex, null, 0);
+    }
+
+    /**
+     * @return number of nodes reachable from the root
+     */
+    int getNodeCount(){
+        return nodeCount;
+    }
+
+    /**
+     * @return children of the node, loaded from the mapped files if they are not cached
+     */
+    StoredChildren getChildren(StoredFptaNode node){
+        StoredChildren children = node.pinnedChildren;
+        if (children != null)
+            return children;
+        if (node.rank < cacheSize / 2) {
+            children = new StoredChildren(loadChildren(node));
+            node.pinnedChildren = children;
+            return children;
+        }
+        synchronized (cache) {
+            children = cache.get(node);
+        }
+        if (children != null)
+            return children;
+        children = new StoredChildren(loadChildren(node));
+        synchronized (cache) {
+            cache.put(node, children);
+        }
+        return children;
+    }
+
+    private EdgeMap loadChildren(StoredFptaNode node){
+        long base = (long) node.index * NODE_SIZE;
+        int childCount = nodes.get(base + 1);
+        long firstEdge = nodes.get(base + 2);
+        EdgeMap children = new EdgeMap();
+        for (int i = 0; i < childCount; i++) {
+            long edge = (firstEdge + i) * EDGE_SIZE;
+            int io = edges.get(edge);
+            children.insertAt(i, io, getNode(edges.get(edge + 2), node, io), edges.get(edge + 1));
+        }
+        return children;
+    }
+
+    /**
+     * @return canonical node object of the stored node, created if no object of it is referenced
+     */
+    private synchronized StoredFptaNode getNode(int index, StoredFptaNode parent, int io){
+        for (NodeReference reference; (reference = (NodeReference) collected.poll()) != null; )
+            removeReference(reference);
+
+        int mask = references.length - 1;
+        int slot = slotOf(index, mask);
+        while (references[slot] != null && references[slot].index != index)
+            slot = (slot + 1) & mask;
+        StoredFptaNode node = references[slot] != null ? references[slot].get() : null;
+        if (node != null)
+            return node;
+
+        long base = (long) index * NODE_SIZE;
+        node = new StoredFptaNode(this, index, nodes.get(base));
+        node.rank = nodes.get(base + 3);
+        if (parent != null) {
+            node.parentInputPair = new ParentInputPair(parent, io);
+            node.depth = parent.depth + 1;
+        } else {
+            node.parentInputPair = null;
+        }
+        // a cleared reference of the index is replaced, and ignored once it is polled
+        if (references[slot] == null)
+            referenceCount++;
+        references[slot] = new NodeReference(node, index, collected);
+        if (referenceCount * 2 > references.length)
+            resizeReferences();
+        return node;
+    }
+
+    private static int slotOf(int index, int mask){
+        return (index * 0x9E3779B9) & mask;
+    }
+
+    /**
+     * Removes the reference, shifting back subsequent references of its probe sequence.
+     */
+    private void removeReference(NodeReference reference){
+        int mask = references.length - 1;
+        int slot = slotOf(reference.index, mask);
+        while (references[slot] != null && references[slot] != reference)
+            slot = (slot + 1) & mask;
+        if (references[slot] == null)
+            return;
+        references[slot] = null;
+        referenceCount--;
+        for (int next = (slot + 1) & mask; references[next] != null; next = (next + 1) & mask) {
+            int home = slotOf(references[next].index, mask);
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                references[slot] = references[next];
+                references[next] = null;
+                slot = next;
+            }
+        }
+    }
+
+    private void resizeReferences(){
+        NodeReference[] old = references;
+        references = new NodeReference[old.length * 2];
+        int mask = references.length - 1;
+        for (NodeReference reference : old) {
+            if (reference == null)
+                continue;
+            int slot = slotOf(reference.index, mask);
+            while (references[slot] != null)
+                slot = (slot + 1) & mask;
+            references[slot] = reference;
+        }
+    }
+
+    /**
+     * Deletes the files of the store. Nodes of the store must not be accessed afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (nodeOutput != null) {
+            nodeOutput.close();
+            edgeOutput.close();
+        }
+        nodes = null;
+        edges = null;
+        for (String name : new String[]{"nodes", "edges", "queue"})
+            Files.deleteIfExists(directory.resolve(name));
+        Files.deleteIfExists(directory);
+    }
+
+    private static final class NodeReference extends WeakReference<StoredFptaNode> {
+        final int index;
+
+        NodeReference(StoredFptaNode node, int index, ReferenceQueue<StoredFptaNode> queue){
+            super(node, queue);
+            this.index = index;
+        }
+    }
+}
@@ -1,8 +1,6 @@
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import static java.lang.Math.*;
 
@@ -18,26 +16,88 @@ public class HoeffdingCompatibilityChecker implements CompatibilityChecker {
         log_term = sqrt(0.5 * log(2 / epsilon));
     }
 
+    /**
+     * Relative frequencies differ by at most 1, and the bound only grows with fewer samples, so distributions
+     * with at most n1 and n2 samples can be different only if the bound for n1 and n2 is below 1.
+     */
     @Override
-    public boolean areStatesDifferent(FptaNode a, FptaNode b, ModelType modelType) {
+    public boolean canReject(int n1, int n2) {
+        if (n1 == 0 || n2 == 0)
+            return false;
+        return (sqrt(1. / n1) + sqrt(1. / n2)) * log_term < 1;
+    }
+
+    @Override
+    public boolean areStatesDifferent(FptaNode a, FptaNode b, ModelType modelType, Alphabet alphabet) {
         // No data available for any node
-        if (a.immutableInputFrequency.size() * b.immutableInputFrequency.size() == 0)
+        if (a.getChildren().isEmpty() || b.getChildren().isEmpty())
+            return false;
+
+        DistributionIndex aIndex = a.getDistributionIndex(alphabet);
+        DistributionIndex bIndex = b.getDistributionIndex(alphabet);
+
+        // inputs are sorted, so their intersection is found by merging (Markov chains have only one input)
+        int i = 0, j = 0;
+        while (i < aIndex.inputCount() && j < bIndex.inputCount()) {
+            int cmp = Integer.compare(aIndex.inputs[i], bIndex.inputs[j]);
+            if (cmp < 0)
+                i++;
+            else if (cmp > 0)
+                j++;
+            else {
+                if (hoeffdingBound(aIndex, i, bIndex, j))
+                    return true;
+                i++;
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hoeffding bound over output distributions of one input.
+     * @param a index of the first node
+     * @param aInput position of the input in a
+     * @param b index of the second node
+     * @param bInput position of the input in b
+     * @return true if distributions are different
+     */
+    public boolean hoeffdingBound(DistributionIndex a, int aInput, DistributionIndex b, int bInput) {
+        double n1 = a.inputTotals[aInput];
+        double n2 = b.inputTotals[bInput];
+
+        if (n1 * n2 == 0)
             return false;
 
-        if(modelType == ModelType.MC)
-            return hoeffdingBound(a.immutableInputFrequency, b.immutableInputFrequency);
+        double bound = (a.invSqrtTotals[aInput] + b.invSqrtTotals[bInput]) * log_term;
 
-        Set<String> inputIntersection = new HashSet<>(a.getInputs(true));
-        inputIntersection.retainAll(b.getInputs(true));
+        int i = a.offsets[aInput], aEnd = a.offsets[aInput + 1];
+        int j = b.offsets[bInput], bEnd = b.offsets[bInput + 1];
+        while (i < aEnd || j < bEnd) {
+            double aFreq = 0, bFreq = 0;
+            if (j == bEnd || (i < aEnd && a.ios[i] < b.ios[j]))
+                aFreq = a.counts[i++];
+            else if (i == aEnd || b.ios[j] < a.ios[i])
+                bFreq = b.counts[j++];
+            else {
+                aFreq = a.counts[i++];
+                bFreq = b.counts[j++];
+            }
 
-        for (String key : inputIntersection) {
-            if (hoeffdingBound(a.getOutputFrequencies(key, true), b.getOutputFrequencies(key,true)))
+            if (abs(aFreq / n1 - bFreq / n2) > bound)
                 return true;
         }
+
         return false;
     }
 
-    public boolean hoeffdingBound(Map<String, Integer> a, Map<String, Integer> b) {
+    /**
+     * Hoeffding bound over output frequency maps.
+     * @param a frequencies of the first node
+     * @param b frequencies of the second node
+     * @return true if distributions are different
+     */
+    public boolean hoeffdingBound(Map<Integer, Integer> a, Map<Integer, Integer> b) {
         double n1 = a.values().stream().mapToInt(Integer::intValue).sum();
         double n2 = b.values().stream().mapToInt(Integer::intValue).sum();
 
@@ -45,10 +105,10 @@ public class HoeffdingCompatibilityChecker implements CompatibilityChecker {
             return false;
 
         double bound = (sqrt(1. / n1) + sqrt(1. / n2));
-        Set<String> outputUnion = new HashSet<>(a.keySet());
+        Set<Integer> outputUnion = new HashSet<>(a.keySet());
         outputUnion.addAll(b.keySet());
 
-        for (String o : outputUnion) {
+        for (int o : outputUnion) {
             double aFreq = a.getOrDefault(o, 0);
             double bFreq = b.getOrDefault(o, 0);
 
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of compatibility tests of node pairs, kept between learning runs over a growing FPTA.
+ * Compatibility test of two nodes depends only on frequencies in their immutable subtrees. A result is valid
+ * as long as neither node was stamped with a generation newer than the generation in which the result was
+ * computed, as inserting a sample stamps every node on its path. Stamps only grow, so invalid results are removed.
+ */
+class CompatibilityMemo {
+    private final ConcurrentHashMap<NodePair, Integer> results = new ConcurrentHashMap<>();
+    // generation of the tree in which new results are computed
+    private volatile int generation = 0;
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param generation generation of the tree in which following results are computed
+     */
+    public void setGeneration(int generation){
+        this.generation = generation;
+    }
+
+    /**
+     * @return 1 if nodes are compatible, 0 if they are not, -1 if no valid result is known
+     */
+    public int get(FptaNode a, FptaNode b){
+        Integer entry = results.get(new NodePair(a, b));
+        if (entry == null)
+            return -1;
+        int computedIn = entry >> 1;
+        if (a.generation > computedIn || b.generation > computedIn)
+            return -1;
+        hits.incrementAndGet();
+        return entry & 1;
+    }
+
+    public void put(FptaNode a, FptaNode b, boolean compatible){
+        results.put(new NodePair(a, b), (generation << 1) | (compatible ? 1 : 0));
+    }
+
+    /**
+     * Removes results invalidated by samples inserted since they were computed.
+     * @return number of removed results
+     */
+    public int removeStale(){
+        int before = results.size();
+        results.entrySet().removeIf(e -> {
+            int computedIn = e.getValue() >> 1;
+            return e.getKey().a.generation > computedIn || e.getKey().b.generation > computedIn;
+        });
+        return before - results.size();
+    }
+
+    /**
+     * @return number of results reused since the memo was created
+     */
+    public long getHitCount(){
+        return hits.get();
+    }
+
+    public int size(){
+        return results.size();
+    }
+
+    /**
+     * Pair of nodes compared by identity.
+     */
+    private static final class NodePair {
+        final FptaNode a;
+        final FptaNode b;
+
+        NodePair(FptaNode a, FptaNode b){
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (!(o instanceof NodePair))
+                return false;
+            NodePair other = (NodePair) o;
+            return a == other.a && b == other.b;
+        }
+
+        @Override
+        public int hashCode(){
+            return 31 * System.identityHashCode(a) + System.identityHashCode(b);
+        }
+    }
+}
+
+/**
+ * Learns models from samples arriving in batches. FPTA is retained between batches: new samples are inserted in
+ * it and the model is relearned from the updated tree. Results of compatibility tests of nodes whose subtrees
+ * received no new samples are reused from previous runs, so most tests of a refresh involve only the new data.
+ * Learned model is the same as the one learned from all samples at once.
+ */
+public class IncrementalAlergia {
+    private final ModelType modelType;
+    private final CompatibilityChecker compatibilityChecker;
+    private final int parallelism;
+    private final FptaBuilder builder;
+    private final CompatibilityMemo memo = new CompatibilityMemo();
+
+    /**
+     * @param type model type
+     * @param eps epsilon value for HoeffdingCompatibilityChecker
+     */
+    public IncrementalAlergia(ModelType type, double eps){
+        this(type, new HoeffdingCompatibilityChecker(eps), 1);
+    }
+
+    /**
+     * @param type model type
+     * @param compChecker instance of CompatibilityChecker implementation
+     * @param parallelism number of threads used to construct the FPTA and to search for compatible states
+     */
+    public IncrementalAlergia(ModelType type, CompatibilityChecker compChecker, int parallelism){
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        this.modelType = type;
+        this.compatibilityChecker = compChecker;
+        this.parallelism = parallelism;
+        this.builder = new FptaBuilder(type, parallelism);
+    }
+
+    /**
+     * Inserts new samples in the retained FPTA.
+     * @param data list of lists of strings conforming to syntax defined at https://github.com/emuskardin/jAlergia
+     */
+    public void addSamples(List<List<String>> data){
+        for (List<String> sample : data)
+            builder.addSample(sample);
+    }
+
+    /**
+     * Inserts samples of a text or binary input file in the retained FPTA.
+     * @param path path to input file
+     * @throws AlergiaException if the file cannot be read or its samples do not conform to the syntax
+     */
+    public void addSamples(String path){
+        try {
+            if (BinaryTraceFormat.isBinary(path))
+                BinaryTraceFormat.read(path, builder);
+            else
+                MappedTraceReader.read(path, builder, parallelism);
+        } catch (IOException e) {
+            throw new AlergiaException("Input file could not be opened or is malformed.", e);
+        }
+    }
+
+    /**
+     * Learns the model from all samples added so far.
+     * @return learned model
+     */
+    public LearnedModel relearn(){
+        FptaNode root = builder.getRoot();
+        // results invalidated by the samples added since the previous run are never valid again
+        memo.removeStale();
+        // samples added from now on invalidate results computed in this run
+        memo.setGeneration(builder.advanceGeneration());
+
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            AlergiaRun run = new AlergiaRun(root, builder.getAlphabet(), modelType, compatibilityChecker, pool);
+            run.setMemo(memo);
+            return run.learn();
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+
+    /**
+     * @return number of nodes in the retained FPTA
+     */
+    public int getNodeCount(){
+        return builder.getNodeCount();
+    }
+
+    /**
+     * @return number of compatibility test results kept for following runs
+     */
+    public int getMemoSize(){
+        return memo.size();
+    }
+
+    /**
+     * @return number of compatibility tests answered from results of previous runs
+     */
+    public long getReusedTestCount(){
+        return memo.getHitCount();
+    }
+}
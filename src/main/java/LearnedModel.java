@@ -0,0 +1,121 @@
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Automaton learned by Alergia. States are the red nodes of a run, and their transitions are the children
+ * of red nodes in the mutable tree of the run. Transition probabilities are computed by normalizing frequencies
+ * of transitions of each state, per input for MDPs and SMMs, or over all transitions for Markov chains.
+ * Model does not modify the FPTA, so models of several runs can share the same tree. Transitions are read from
+ * the tree once, so the model remains usable after an out-of-core tree is closed.
+ */
+public class LearnedModel {
+    private final List<FptaNode> states;
+    private final ModelType modelType;
+    private final Alphabet alphabet;
+
+    private final Map<FptaNode, Integer> stateIndices = new IdentityHashMap<>();
+    private final EdgeMap[] transitions;
+    // aligned with children of each state
+    private final double[][] probabilities;
+
+    /**
+     * @param states red nodes in lexicographic order, first node is the initial state
+     * @param mutableTree tree holding transitions of states
+     * @param modelType mdp, smm, or mc
+     * @param alphabet alphabet of the tree
+     */
+    LearnedModel(List<FptaNode> states, FptaOverlay mutableTree, ModelType modelType, Alphabet alphabet){
+        this.states = states;
+        this.modelType = modelType;
+        this.alphabet = alphabet;
+        this.transitions = new EdgeMap[states.size()];
+        this.probabilities = new double[states.size()][];
+        normalize(mutableTree);
+    }
+
+    /**
+     * Normalizes probabilities of final states, that it assigns probabilities to transitions for each state.
+     */
+    private void normalize(FptaOverlay mutableTree) {
+        for (int index = 0; index < states.size(); index++) {
+            FptaNode r = states.get(index);
+            stateIndices.put(r, index);
+            EdgeMap children = mutableTree.getChildren(r);
+            transitions[index] = children;
+            probabilities[index] = new double[children.size()];
+
+            if(modelType == ModelType.MC){
+                int totalOutput = children.totalCount();
+                for (int i = 0; i < children.size(); i++)
+                    probabilities[index][i] = (double) children.countAt(i) / totalOutput;
+            }else{
+                for (int i = 0; i < children.size(); i++) {
+                    int input = alphabet.getIoInput(children.keyAt(i));
+                    probabilities[index][i] = (double) children.countAt(i) /
+                            children.getInputFrequency(input, alphabet);
+                }
+            }
+        }
+    }
+
+    public int getStateCount(){
+        return states.size();
+    }
+
+    public FptaNode getState(int index){
+        return states.get(index);
+    }
+
+    /**
+     * @return index of the state, or -1 if the node is not a state of the model
+     */
+    public int getStateIndex(FptaNode state){
+        Integer index = stateIndices.get(state);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return identifier of the state used in .dot files
+     */
+    public String getStateId(int index){
+        return "q" + index;
+    }
+
+    /**
+     * @return transitions of the state, mapping input/output pairs to target states and frequencies
+     */
+    public EdgeMap getTransitions(int index){
+        return transitions[index];
+    }
+
+    /**
+     * @return probability of the i-th transition of the state
+     */
+    public double getProbability(int index, int i){
+        return probabilities[index][i];
+    }
+
+    public ModelType getModelType(){
+        return modelType;
+    }
+
+    public Alphabet getAlphabet(){
+        return alphabet;
+    }
+
+    /**
+     * Saves the model in .dot format.
+     * @param saveLocation file name, without the .dot extension
+     */
+    public void save(String saveLocation){
+        Parser.saveModel(this, saveLocation);
+    }
+
+    /**
+     * @return model compiled for scoring samples
+     */
+    public CompiledModel compile(){
+        return new CompiledModel(this);
+    }
+}
@@ -0,0 +1,201 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values with power-of-two buckets. Bucket b counts values in [2^(b-1), 2^b),
+ * bucket 0 counts zeros. Values can be recorded concurrently.
+ */
+class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(65);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+
+    public void record(long value){
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount(){
+        return count.sum();
+    }
+
+    public long getSum(){
+        return sum.sum();
+    }
+
+    /**
+     * @return upper bound of the bucket containing the given quantile of recorded values
+     */
+    public long quantile(double q){
+        long total = getCount();
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int b = 0; b < buckets.length(); b++) {
+            seen += buckets.get(b);
+            if (seen >= rank && seen > 0)
+                return Math.min(b == 0 ? 0 : (1L << b) - 1, max.get());
+        }
+        return max.get();
+    }
+
+    void appendJson(StringBuilder json){
+        long total = getCount();
+        json.append("{\"count\":").append(total)
+                .append(",\"sum\":").append(getSum())
+                .append(",\"min\":").append(total == 0 ? 0 : min.get())
+                .append(",\"max\":").append(max.get())
+                .append(",\"mean\":").append(String.format(Locale.ROOT, "%.3f", total == 0 ? 0. : (double) getSum() / total))
+                .append(",\"p50\":").append(quantile(0.5))
+                .append(",\"p90\":").append(quantile(0.9))
+                .append(",\"p99\":").append(quantile(0.99))
+                .append(",\"buckets\":[");
+        boolean first = true;
+        for (int b = 0; b < buckets.length(); b++) {
+            long c = buckets.get(b);
+            if (c == 0)
+                continue;
+            if (!first)
+                json.append(',');
+            first = false;
+            // upper bound of the bucket and its count
+            json.append('[').append(b == 0 ? 0 : (1L << b) - 1).append(',').append(c).append(']');
+        }
+        json.append("]}");
+    }
+}
+
+/**
+ * Metrics of FPTA construction and of a single learning run.
+ * Counters updated by compatibility tests can be updated concurrently, as tests may run in parallel;
+ * other values are updated only by the thread running the main loop.
+ */
+public class LearningMetrics {
+    // FPTA construction
+    long fptaNodeCount = 0;
+    double constructionSeconds = 0;
+
+    // learning
+    final LongAdder compatibilityTests = new LongAdder();
+    final LongAdder visitedPairs = new LongAdder();
+    final LongAdder areStatesDifferentCalls = new LongAdder();
+    final Histogram visitedPairsPerTest = new Histogram();
+    long iterations = 0;
+    long merges = 0;
+    long promotions = 0;
+    final Histogram foldSizes = new Histogram();
+    final Histogram iterationNanos = new Histogram();
+    int redStates = 0;
+    double learningSeconds = 0;
+    boolean finished = false;
+
+    /**
+     * @param nodeCount number of nodes of the FPTA
+     * @param seconds duration of the FPTA construction
+     */
+    public void recordFpta(long nodeCount, double seconds){
+        fptaNodeCount = nodeCount;
+        constructionSeconds = seconds;
+    }
+
+    /**
+     * @param pairs number of node pairs visited by the test
+     * @param checks number of areStatesDifferent calls of the test
+     */
+    public void recordCompatibilityTest(int pairs, int checks){
+        compatibilityTests.increment();
+        visitedPairs.add(pairs);
+        areStatesDifferentCalls.add(checks);
+        visitedPairsPerTest.record(pairs);
+    }
+
+    public long getFptaNodeCount(){
+        return fptaNodeCount;
+    }
+
+    /**
+     * @return number of edges of the FPTA, each node except the root has one incoming edge
+     */
+    public long getFptaEdgeCount(){
+        return Math.max(fptaNodeCount - 1, 0);
+    }
+
+    public long getCompatibilityTestCount(){
+        return compatibilityTests.sum();
+    }
+
+    public long getVisitedPairCount(){
+        return visitedPairs.sum();
+    }
+
+    public long getAreStatesDifferentCount(){
+        return areStatesDifferentCalls.sum();
+    }
+
+    public long getMergeCount(){
+        return merges;
+    }
+
+    public long getPromotionCount(){
+        return promotions;
+    }
+
+    public Histogram getFoldSizes(){
+        return foldSizes;
+    }
+
+    public Histogram getIterationNanos(){
+        return iterationNanos;
+    }
+
+    /**
+     * @return sum of peak usages of heap memory pools since the start of the JVM
+     */
+    public static long getPeakHeapBytes(){
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    /**
+     * @return metrics as a single-line JSON object
+     */
+    public String toJson(){
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"finished\":").append(finished)
+                .append(",\"fpta\":{\"nodes\":").append(fptaNodeCount)
+                .append(",\"edges\":").append(getFptaEdgeCount())
+                .append(",\"constructionSeconds\":").append(String.format(Locale.ROOT, "%.3f", constructionSeconds))
+                .append("},\"learning\":{\"seconds\":").append(String.format(Locale.ROOT, "%.3f", learningSeconds))
+                .append(",\"iterations\":").append(iterations)
+                .append(",\"merges\":").append(merges)
+                .append(",\"promotions\":").append(promotions)
+                .append(",\"redStates\":").append(redStates)
+                .append(",\"compatibilityTests\":").append(getCompatibilityTestCount())
+                .append(",\"visitedPairs\":").append(getVisitedPairCount())
+                .append(",\"areStatesDifferentCalls\":").append(getAreStatesDifferentCount())
+                .append(",\"visitedPairsPerTest\":");
+        visitedPairsPerTest.appendJson(json);
+        json.append(",\"foldSizes\":");
+        foldSizes.appendJson(json);
+        json.append(",\"iterationNanos\":");
+        iterationNanos.appendJson(json);
+        Runtime runtime = Runtime.getRuntime();
+        json.append("},\"memory\":{\"peakHeapBytes\":").append(getPeakHeapBytes())
+                .append(",\"usedHeapBytes\":").append(runtime.totalMemory() - runtime.freeMemory())
+                .append("}}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads input files conforming to syntax defined at https://github.com/emuskardin/jAlergia and passes samples
+ * directly to a SampleSink, such as FptaBuilder.
+ * File is memory-mapped and split in newline-aligned chunks, which are tokenized in parallel. Commas and newlines
+ * are found directly in the mapped bytes, and tokens are resolved to symbol ids by comparing byte slices with
+ * previously seen symbols, so strings are created only for the first occurrence of each symbol.
+ */
+class MappedTraceReader {
+    // largest chunk mapped at once, mapped buffers are limited to 2GB
+    private static final long MAX_CHUNK_SIZE = 1L << 30;
+    // number of ints passed to the builder at once when parsing in parallel
+    private static final int BATCH_SIZE = 1 << 16;
+
+    private MappedTraceReader(){}
+
+    /**
+     * Parses the file and inserts all samples in the builder.
+     * @param path path to input file
+     * @param builder builder receiving samples
+     * @param parallelism number of threads tokenizing the file
+     */
+    public static void read(String path, FptaBuilder builder, int parallelism) throws IOException {
+        read(path, builder.getAlphabet(), builder, parallelism);
+    }
+
+    /**
+     * Parses the file and passes all samples to the sink. If parallelism is 1, samples are passed in the order
+     * of the file; otherwise sink receives batches of samples concurrently from several threads.
+     * @param path path to input file
+     * @param alphabet alphabet used to encode symbols
+     * @param sink sink receiving samples
+     * @param parallelism number of threads tokenizing the file
+     */
+    public static void read(String path, Alphabet alphabet, SampleSink sink, int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long[] boundaries = chunkBoundaries(channel, parallelism);
+            int chunkCount = boundaries.length - 1;
+
+            if (parallelism == 1) {
+                ChunkParser parser = new ChunkParser(alphabet, sink, false);
+                for (int i = 0; i < chunkCount; i++)
+                    parser.parse(channel, boundaries[i], boundaries[i + 1]);
+                return;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < chunkCount; i++) {
+                    long start = boundaries[i], end = boundaries[i + 1];
+                    futures.add(executor.submit(() -> {
+                        ChunkParser parser = new ChunkParser(alphabet, sink, true);
+                        parser.parse(channel, start, end);
+                        parser.flush();
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures)
+                    future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Parsing of the input file was interrupted.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException("Parsing of the input file failed.", e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Splits the file in chunks, such that each chunk starts at the beginning of a line.
+     * @return start positions of chunks, followed by the file size
+     */
+    private static long[] chunkBoundaries(FileChannel channel, int parallelism) throws IOException {
+        long size = channel.size();
+        int chunkCount = (int) Math.max(parallelism, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        long[] boundaries = new long[chunkCount + 1];
+        boundaries[chunkCount] = size;
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int i = 1; i < chunkCount; i++) {
+            long position = Math.max(size / chunkCount * i, boundaries[i - 1]);
+            // move the boundary after the next newline
+            boolean found = false;
+            while (!found && position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                for (int j = 0; j < read && !found; j++) {
+                    position++;
+                    found = buffer.get(j) == '\n';
+                }
+            }
+            boundaries[i] = position;
+        }
+        return boundaries;
+    }
+
+    /**
+     * Tokenizes chunks of the file. Each thread uses its own parser and symbol cache.
+     */
+    private static final class ChunkParser {
+        private final Alphabet alphabet;
+        private final SampleSink sink;
+        private final SymbolCache symbolCache = new SymbolCache();
+        // samples are collected in batches of [length, symbols...] when parsing in parallel
+        private final boolean batched;
+        private int[] batch;
+        private int batchSize = 0;
+        private int[] sample = new int[64];
+
+        ChunkParser(Alphabet alphabet, SampleSink sink, boolean batched){
+            this.alphabet = alphabet;
+            this.sink = sink;
+            this.batched = batched;
+            this.batch = batched ? new int[BATCH_SIZE] : null;
+        }
+
+        void parse(FileChannel channel, long start, long end) throws IOException {
+            if (start == end)
+                return;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int limit = buffer.limit();
+            int sampleLength = 0;
+            int tokenStart = 0;
+            for (int i = 0; i <= limit; i++) {
+                byte b = i < limit ? buffer.get(i) : (byte) '\n';
+                if (b != ',' && b != '\n')
+                    continue;
+
+                int tokenEnd = i;
+                if (b == '\n' && tokenEnd > tokenStart && buffer.get(tokenEnd - 1) == '\r')
+                    tokenEnd--;
+                if (sampleLength == sample.length)
+                    sample = Arrays.copyOf(sample, sample.length * 2);
+                sample[sampleLength++] = tokenEnd > tokenStart ?
+                        symbolCache.getSymbolId(buffer, tokenStart, tokenEnd, alphabet) : -1;
+                tokenStart = i + 1;
+
+                if (b == '\n') {
+                    // trailing empty tokens are ignored, as with String.split
+                    while (sampleLength > 0 && sample[sampleLength - 1] == -1)
+                        sampleLength--;
+                    for (int j = 0; j < sampleLength; j++) {
+                        if (sample[j] == -1)
+                            sample[j] = alphabet.getSymbolId("");
+                    }
+                    if (sampleLength > 0)
+                        addSample(sampleLength);
+                    sampleLength = 0;
+                }
+            }
+        }
+
+        private void addSample(int length){
+            if (!batched) {
+                sink.addSample(sample, 0, length);
+                return;
+            }
+            if (batchSize + length + 1 > batch.length)
+                flush();
+            if (length + 1 > batch.length)
+                batch = new int[length + 1];
+            batch[batchSize++] = length;
+            System.arraycopy(sample, 0, batch, batchSize, length);
+            batchSize += length;
+        }
+
+        void flush(){
+            if (batchSize > 0)
+                sink.addSamples(batch, batchSize);
+            batchSize = 0;
+        }
+    }
+
+    /**
+     * Open addressing map from byte slices to symbol ids.
+     */
+    private static final class SymbolCache {
+        private byte[][] keys = new byte[64][];
+        private int[] hashes = new int[64];
+        private int[] ids = new int[64];
+        private int size = 0;
+
+        int getSymbolId(ByteBuffer buffer, int start, int end, Alphabet alphabet){
+            int hash = 0;
+            for (int i = start; i < end; i++)
+                hash = 31 * hash + buffer.get(i);
+
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash && matches(keys[slot], buffer, start, end))
+                    return ids[slot];
+                slot = (slot + 1) & mask;
+            }
+
+            byte[] key = new byte[end - start];
+            for (int i = start; i < end; i++)
+                key[i - start] = buffer.get(i);
+            int id = alphabet.getSymbolId(new String(key, StandardCharsets.UTF_8));
+            keys[slot] = key;
+            hashes[slot] = hash;
+            ids[slot] = id;
+            if (++size * 2 > keys.length)
+                rehash();
+            return id;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end){
+            if (key.length != end - start)
+                return false;
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i))
+                    return false;
+            }
+            return true;
+        }
+
+        private void rehash(){
+            byte[][] oldKeys = keys;
+            int[] oldHashes = hashes;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            hashes = new int[oldKeys.length * 2];
+            ids = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null)
+                    continue;
+                int slot = mix(oldHashes[i]) & mask;
+                while (keys[slot] != null)
+                    slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+
+        private static int mix(int hash){
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
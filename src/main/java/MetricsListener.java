@@ -0,0 +1,42 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Receives metrics while Alergia is running.
+ */
+public interface MetricsListener {
+    /**
+     * Called periodically during learning, and once after the learning run finished.
+     * Metrics must not be retained, as they are updated further by the learning run.
+     * @param metrics metrics of the current run
+     * @param finished true if the learning run finished
+     */
+    public void onMetrics(LearningMetrics metrics, boolean finished);
+}
+
+/**
+ * Appends metrics to a file in the JSON Lines format, one JSON object per call. Last line of a finished run
+ * contains its final metrics.
+ */
+class JsonLinesMetricsListener implements MetricsListener {
+    private final String path;
+
+    /**
+     * @param path file to which metrics are appended, it is truncated when the listener is created
+     */
+    JsonLinesMetricsListener(String path) throws IOException {
+        this.path = path;
+        new FileWriter(path).close();
+    }
+
+    @Override
+    public synchronized void onMetrics(LearningMetrics metrics, boolean finished){
+        try (FileWriter fw = new FileWriter(path, true)) {
+            fw.write(metrics.toJson());
+            fw.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
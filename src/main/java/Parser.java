@@ -1,12 +1,40 @@
+import java.io.BufferedReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Values of command line options of Alergia.main, defaults are used for options that are not given.
+ */
+class AlergiaOptions {
+    String path = null;
+    double eps = 0.05;
+    // epsilons of a sweep, null if a single epsilon is given
+    List<Double> epsilons = null;
+    // null if only converting the input file
+    ModelType type = null;
+    String saveLocation = "jAlergiaModel";
+    int parallelism = 1;
+    String convertLocation = null;
+    String snapshotLocation = null;
+    String metricsLocation = null;
+    // in seconds
+    double metricsInterval = 0;
+    int maxDepth = Integer.MAX_VALUE;
+    int minCount = 1;
+    long nodeBudget = 0;
+    // in bytes, 0 if samples are not deduplicated
+    long sortMemory = 0;
+    // 0 if the FPTA is kept in memory
+    int cacheSize = 0;
+}
 
 /**
  * Helper class for parsing input file and writing learned model to file.
@@ -16,25 +44,41 @@ class Parser{
     static String helpDisplayMessage = "Welcome to jAlergia, a minimal Alergia implementation in Java.\n" +
             "To use jAlergia, you need to have a file with input(output) data following the syntax found at\n" +
             "https://github.com/emuskardin/jAlergia and https://github.com/DES-Lab/AALpy/wiki/Passive-Learning-of-Stochastic-Automata\n" +
-            "If heap is overflown during IOFPTA construction, consider extending it with -Xmx12G.\n\n" +
+            "If heap is overflown during IOFPTA construction, consider extending it with -Xmx12G, or use -outOfCore.\n\n" +
             "Mandatory arguments\n" +
-            "\t-input <pathToInputFile> - file needs to conform to above mentioned syntax\n" +
+            "\t-input <pathToInputFile> - file needs to conform to above mentioned syntax, be in the binary trace format, or be an FPTA snapshot\n" +
             "\t-type <modelType> - either mdp, smm, or mc; If you want to learn Markov Decision Process, Stochastic Mealy Machine, or Markov Chain\n" +
             "Optional arguments\n" +
             "\t-eps <doubleVal> - value of the epsilon constant in Hoeffding compatibility check. Default: 0.05\n" +
-            "\t-save <saveFileName> - file in which learned model will be saved. Default: jAlergiaModel";
+            "\t     A comma-separated list (0.01,0.05) or a range (0.01:0.1:0.01) of values learns one model per value\n" +
+            "\t     from the same FPTA, saved as <saveFileName>_eps_<value>.dot, with a summary in <saveFileName>_sweep.csv\n" +
+            "\t-save <saveFileName> - file in which learned model will be saved. Default: jAlergiaModel\n" +
+            "\t-threads <intVal> - number of threads used to construct the FPTA and to search for compatible states. Default: 1\n" +
+            "\t-maxDepth <intVal> - samples are inserted in the FPTA only up to this number of steps. Default: unbounded\n" +
+            "\t-minCount <intVal> - subtrees of FPTA nodes reached fewer times are collapsed into leaves. Default: 1\n" +
+            "\t-nodeBudget <intVal> - collapses low-count subtrees during construction whenever the FPTA exceeds this\n" +
+            "\t     number of nodes, which bounds memory at the cost of approximate frequencies. Requires -minCount\n" +
+            "\t-dedup <intVal> - sorts samples using at most this many megabytes of memory, spilling to temporary files\n" +
+            "\t     beyond it, and inserts each distinct sample once with its multiplicity. Default: off\n" +
+            "\t-outOfCore <intVal> - keeps the FPTA of an input file in memory-mapped temporary files instead of the heap,\n" +
+            "\t     caching children of this many nodes on the heap while learning. Samples are sorted as with -dedup,\n" +
+            "\t     256 MB are used if -dedup is not given. Default: off\n" +
+            "\t-snapshot <snapshotFileName> - file in which the constructed FPTA will be saved, to be used as -input of later runs\n" +
+            "\t-metrics <metricsFileName> - file to which learning metrics are written as JSON lines, last line holds final metrics\n" +
+            "\t-metricsInterval <doubleVal> - interval in seconds in which metrics are written during learning. Default: 0, only final metrics\n" +
+            "\t-convert <binaryFileName> - converts the input file to the binary trace format and exits; -type is not needed";
     /**
      * Parses the arguments as defined in helpDisplayMessage;
      * @param args list of arguments
-     * @return List of argument values
+     * @return option values
      */
-    public static List<Object> parseArgs(String[] args){
-        double eps = 0.05;
-        ModelType type = null;
-        String path = null;
-        String saveLocation = "jAlergiaModel";
+    public static AlergiaOptions parseArgs(String[] args){
+        AlergiaOptions options = new AlergiaOptions();
 
-        HashSet<String> argNames = new HashSet<>(Arrays.asList("-eps", "-input", "-type", "-save", "-optim"));
+        // -optim is no longer needed, as the mutable tree only stores modified nodes; accepted for compatibility
+        HashSet<String> argNames = new HashSet<>(Arrays.asList("-eps", "-input", "-type", "-save", "-optim",
+                "-threads", "-convert", "-maxDepth", "-minCount", "-nodeBudget", "-dedup", "-outOfCore",
+                "-snapshot", "-metrics", "-metricsInterval"));
         if(args.length == 0 || args[0].equals("-help") || args[0].equals("-h") || args[0].equals("--help")){
             System.out.println(helpDisplayMessage);
             System.exit(0);
@@ -46,32 +90,22 @@ class Parser{
             }
 
             if(args[i].equals("-eps")){
-                try {
-                    eps = Double.parseDouble(args[i+1]);
-                    if(eps > 2 || eps <= 0){
-                        if(eps != -1) {
-                            System.out.println("Epsilon values must be a double in range of [2,0> " +
-                                    "or -1 for automatic computation of epsilon.");
-                            System.exit(1);
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    System.out.println("Epsilon values must be a double in range of [2,0>");
-                    e.printStackTrace();
-                }
+                List<Double> values = parseEpsilons(args[i+1]);
+                options.eps = values.get(0);
+                options.epsilons = values.size() > 1 ? values : null;
             }
             if(args[i].equals("-input"))
-                path = args[i+1];
+                options.path = args[i+1];
             if(args[i].equals("-type")){
                 switch (args[i + 1]) {
                     case "mdp":
-                        type = ModelType.MDP;
+                        options.type = ModelType.MDP;
                         break;
                     case "smm":
-                        type = ModelType.SMM;
+                        options.type = ModelType.SMM;
                         break;
                     case "mc":
-                        type = ModelType.MC;
+                        options.type = ModelType.MC;
                         break;
                     default:
                         System.out.println("Invalid -type option. Make sure it is either mdp, smm, or mc.");
@@ -79,18 +113,123 @@ class Parser{
                 }
             }
             if(args[i].equals("-save"))
-                saveLocation = args[i+1];
+                options.saveLocation = args[i+1];
+            if(args[i].equals("-threads")){
+                try {
+                    options.parallelism = Integer.parseInt(args[i+1]);
+                } catch (NumberFormatException e) {
+                    options.parallelism = 0;
+                }
+                if(options.parallelism < 1){
+                    System.out.println("Number of threads must be a positive integer.");
+                    System.exit(1);
+                }
+            }
+            if(args[i].equals("-maxDepth"))
+                options.maxDepth = (int) parsePositive(args[i+1], Integer.MAX_VALUE, "Maximum depth must be a positive integer.");
+            if(args[i].equals("-minCount"))
+                options.minCount = (int) parsePositive(args[i+1], Integer.MAX_VALUE, "Minimum count must be a positive integer.");
+            if(args[i].equals("-nodeBudget"))
+                options.nodeBudget = parsePositive(args[i+1], Long.MAX_VALUE, "Node budget must be a positive integer.");
+            if(args[i].equals("-dedup"))
+                options.sortMemory = parsePositive(args[i+1], Long.MAX_VALUE >> 20, "Sort memory must be a positive number of megabytes.") << 20;
+            if(args[i].equals("-outOfCore"))
+                options.cacheSize = (int) parsePositive(args[i+1], Integer.MAX_VALUE, "Cache size must be a positive number of nodes.");
+            if(args[i].equals("-convert"))
+                options.convertLocation = args[i+1];
+            if(args[i].equals("-snapshot"))
+                options.snapshotLocation = args[i+1];
+            if(args[i].equals("-metrics"))
+                options.metricsLocation = args[i+1];
+            if(args[i].equals("-metricsInterval")){
+                try {
+                    options.metricsInterval = Double.parseDouble(args[i+1]);
+                } catch (NumberFormatException e) {
+                    options.metricsInterval = -1;
+                }
+                if(options.metricsInterval < 0){
+                    System.out.println("Metrics interval must be a non-negative number of seconds.");
+                    System.exit(1);
+                }
+            }
         }
 
-        if(path==null) {
+        if(options.path==null) {
             System.out.println("Input file not specified. For more details use -h option.");
             System.exit(1);
         }
-        if(type==null){
+        if(options.type==null && options.convertLocation==null){
             System.out.println("Automaton type not specified. For more details use -h option.");
             System.exit(1);
         }
-        return Arrays.asList(path, eps, type, saveLocation, null);
+        if(options.nodeBudget > 0 && options.minCount == 1){
+            System.out.println("-nodeBudget requires -minCount greater than 1.");
+            System.exit(1);
+        }
+        return options;
+    }
+
+    /**
+     * Parses a positive integer option value, exits with the message if it is not valid.
+     */
+    private static long parsePositive(String value, long max, String message){
+        long result;
+        try {
+            result = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            result = 0;
+        }
+        if(result < 1 || result > max){
+            System.out.println(message);
+            System.exit(1);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the value of the -eps option: a single epsilon, a comma-separated list of epsilons,
+     * or an inclusive range in the start:end:step notation.
+     * @param value value of the option
+     * @return list of epsilons
+     */
+    private static List<Double> parseEpsilons(String value){
+        List<Double> epsilons = new ArrayList<>();
+        try {
+            String[] range = value.split(":");
+            if(range.length == 3){
+                BigDecimal start = new BigDecimal(range[0].trim());
+                BigDecimal end = new BigDecimal(range[1].trim());
+                BigDecimal step = new BigDecimal(range[2].trim());
+                if(step.signum() <= 0){
+                    System.out.println("Step of the epsilon range must be positive.");
+                    System.exit(1);
+                }
+                for (BigDecimal e = start; e.compareTo(end) <= 0; e = e.add(step))
+                    epsilons.add(e.doubleValue());
+            } else if(range.length == 1){
+                for (String e : value.split(","))
+                    epsilons.add(Double.parseDouble(e.trim()));
+            } else {
+                throw new NumberFormatException(value);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Epsilon values must be a double in range of [2,0>");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        if(epsilons.isEmpty()){
+            System.out.println("Epsilon range " + value + " is empty.");
+            System.exit(1);
+        }
+        for (double eps : epsilons) {
+            if((eps > 2 || eps <= 0) && eps != -1){
+                System.out.println("Epsilon values must be a double in range of [2,0> " +
+                        "or -1 for automatic computation of epsilon.");
+                System.exit(1);
+            }
+        }
+        return epsilons;
     }
 
     /**
@@ -100,60 +239,74 @@ class Parser{
      */
     public static List<List<String>> parseFile(String path){
         List<List<String>> data = new ArrayList<>();
+        parseFile(path, data::add);
+        return data;
+    }
 
-        try {
-            for (String line : Files.readAllLines(Paths.get(path))) {
+    /**
+     * Reads file conforming to syntax defined at: https://github.com/emuskardin/jAlergia line by line and passes
+     * each sample to the consumer, without keeping the whole file in memory.
+     * @param path path to input file
+     * @param sampleConsumer consumer called for each non-empty line
+     * @throws AlergiaException if the file cannot be read
+     */
+    public static void parseFile(String path, Consumer<List<String>> sampleConsumer){
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
                 if(line.isEmpty())
                     continue;
-                data.add(Arrays.asList(line.split(",")));
+                sampleConsumer.accept(Arrays.asList(line.split(",")));
             }
         } catch (IOException e) {
-            System.out.println("jAlergia Error: Input file could not be opened.");
-            e.printStackTrace();
-            System.exit(1);
+            throw new AlergiaException("Input file could not be opened.", e);
         }
-        return data;
     }
 
     /**
      * Saves learned model in .dot format. Learned models can be visualized with graphviz and used with AALpy.
-     * @param red Model states
-     * @param modelType either mdp, smm, or mc
+     * @param model learned model
      * @param saveLocation file name
+     * @throws AlergiaException if the file cannot be written
      */
-    public static void saveModel(List<FptaNode> red, ModelType modelType, String saveLocation) {
-        FileWriter fw;
-        try {
-            fw = new FileWriter(saveLocation + ".dot");
+    public static void saveModel(LearnedModel model, String saveLocation) {
+        ModelType modelType = model.getModelType();
+        Alphabet alphabet = model.getAlphabet();
+        try (FileWriter fw = new FileWriter(saveLocation + ".dot")) {
             fw.write("digraph g {\n");
-            for (FptaNode r: red) {
+            for (int s = 0; s < model.getStateCount(); s++) {
+                String stateId = model.getStateId(s);
                 if(modelType != ModelType.SMM)
-                    fw.write(r.stateId + " [shape=\"circle\",label=\"" + r.output + "\"];\n");
+                    fw.write(stateId + " [shape=\"circle\",label=\"" + alphabet.getSymbol(model.getState(s).output) + "\"];\n");
                 else
-                    fw.write(r.stateId + " [shape=\"circle\",label=\"" + r.stateId + "\"];\n");
+                    fw.write(stateId + " [shape=\"circle\",label=\"" + stateId + "\"];\n");
             }
-            for (FptaNode r: red)
-                for (String io : r.children.keySet()) {
+            for (int s = 0; s < model.getStateCount(); s++) {
+                String stateId = model.getStateId(s);
+                EdgeMap children = model.getTransitions(s);
+                for (int i = 0; i < children.size(); i++) {
+                    int io = children.keyAt(i);
+                    String target = model.getStateId(model.getStateIndex(children.nodeAt(i)));
+                    double probability = model.getProbability(s, i);
                     if(modelType == ModelType.MC){
-                        fw.write(r.stateId + "->" + r.children.get(io).stateId + " [label=\"" +
-                                r.childrenProbability.get(io) + "\"];\n");
+                        fw.write(stateId + "->" + target + " [label=\"" +
+                                probability + "\"];\n");
                     }
                     if(modelType == ModelType.MDP){
-                        List<String> inputAndOutput = Arrays.asList(io.split("/"));
-                        fw.write(r.stateId + "->" + r.children.get(io).stateId + " [label=\"" +
-                                inputAndOutput.get(0) + ":" + r.childrenProbability.get(io) + "\"];\n");
+                        fw.write(stateId + "->" + target + " [label=\"" +
+                                alphabet.getSymbol(alphabet.getIoInput(io)) + ":" + probability + "\"];\n");
                     }
                     if(modelType == ModelType.SMM){
-                        fw.write(r.stateId + "->" + r.children.get(io).stateId + " [label=\"" +
-                                io + ":" + r.childrenProbability.get(io) + "\"];\n");
+                        fw.write(stateId + "->" + target + " [label=\"" +
+                                alphabet.getIoString(io) + ":" + probability + "\"];\n");
                     }
                 }
+            }
             fw.write("__start0 [label=\"\" shape=\"none\"];\n");
             fw.write("__start0 -> q0  [label=\"\"];\n");
             fw.write("}\n");
-            fw.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new AlergiaException("Model could not be saved to " + saveLocation + ".dot.", e);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+/**
+ * Receives samples, encoded as symbol ids of an Alphabet, from trace readers.
+ */
+interface SampleSink {
+    /**
+     * @param symbols array containing symbol ids of the sample
+     * @param offset index of the first symbol of the sample
+     * @param length number of symbols in the sample
+     */
+    void addSample(int[] symbols, int offset, int length);
+
+    /**
+     * Receives a batch of samples. Implementations receiving batches from several threads must be thread-safe.
+     * @param batch samples encoded as [length, symbols...] records
+     * @param size number of used ints in the batch
+     */
+    default void addSamples(int[] batch, int size){
+        int position = 0;
+        while (position < size) {
+            int length = batch[position];
+            addSample(batch, position + 1, length);
+            position += length + 1;
+        }
+    }
+}
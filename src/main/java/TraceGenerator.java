@@ -0,0 +1,353 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates samples of a model, in the syntax defined at https://github.com/emuskardin/jAlergia or in the binary
+ * trace format. Samples of MDPs and SMMs use uniformly chosen inputs out of inputs defined in the current state.
+ * Transitions of each state and input are sampled in constant time using alias tables.
+ * Samples are generated in blocks of BLOCK_SIZE samples on several threads, each block with its own random
+ * generator split from the seeded one, and blocks are written in order. Output therefore depends only on the
+ * seed and not on the number of threads.
+ */
+public class TraceGenerator {
+    private static final int BLOCK_SIZE = 4096;
+    // initial buffer of a block, which grows on demand for long samples
+    private static final int MAX_INITIAL_BLOCK_BYTES = 1 << 20;
+
+    static String helpDisplayMessage = "Generates samples of a model saved by jAlergia.\n" +
+            "Mandatory arguments\n" +
+            "\t-model <pathToDotFile> - model saved by jAlergia\n" +
+            "\t-type <modelType> - either mdp, smm, or mc\n" +
+            "\t-output <outputFile> - file to which samples are written\n" +
+            "\t-traces <longVal> - number of samples\n" +
+            "Optional arguments\n" +
+            "\t-length <intVal> - maximal number of steps of a sample, number of steps is uniformly chosen from [1, length]. Default: 10\n" +
+            "\t-seed <longVal> - seed of the random generator. Default: 0\n" +
+            "\t-threads <intVal> - number of threads generating samples. Default: 1\n" +
+            "\t-binary true - write samples in the binary trace format";
+
+    private final ModelType modelType;
+    private final int initialState;
+    // symbols of the model, written to the binary dictionary
+    private final List<String> symbols;
+    private final byte[][] symbolBytes;
+    // output of each state, -1 for SMMs
+    private final int[] stateOutputs;
+    // inputs of state s are in [inputOffsets[s], inputOffsets[s + 1]), MC states have a single input
+    private final int[] inputOffsets;
+    private final int[] inputs;
+    // transitions of input group g are in [transitionOffsets[g], transitionOffsets[g + 1])
+    private final int[] transitionOffsets;
+    private final int[] targets;
+    private final int[] outputs;
+    // alias tables of input groups, aligned with transitions
+    private final double[] aliasProbabilities;
+    private final int[] aliases;
+
+    /**
+     * @param model model to generate samples of
+     */
+    public TraceGenerator(DotModel model){
+        this.modelType = model.modelType;
+        this.initialState = model.initialState;
+        int stateCount = model.getStateCount();
+
+        Map<String, Integer> symbolIds = new LinkedHashMap<>();
+        stateOutputs = new int[stateCount];
+        for (int s = 0; s < stateCount; s++)
+            stateOutputs[s] = modelType != ModelType.SMM ? symbolId(symbolIds, model.stateLabels.get(s)) : -1;
+
+        // group transitions of each state by input, in the order of first occurrence
+        List<Integer> inputList = new ArrayList<>();
+        List<List<DotModel.Transition>> groups = new ArrayList<>();
+        inputOffsets = new int[stateCount + 1];
+        int transitionCount = 0;
+        for (int s = 0; s < stateCount; s++) {
+            inputOffsets[s] = groups.size();
+            Map<String, List<DotModel.Transition>> byInput = new LinkedHashMap<>();
+            for (DotModel.Transition t : model.transitions.get(s))
+                byInput.computeIfAbsent(t.input == null ? "" : t.input, k -> new ArrayList<>()).add(t);
+            for (Map.Entry<String, List<DotModel.Transition>> group : byInput.entrySet()) {
+                inputList.add(modelType != ModelType.MC ? symbolId(symbolIds, group.getKey()) : -1);
+                groups.add(group.getValue());
+                transitionCount += group.getValue().size();
+            }
+        }
+        inputOffsets[stateCount] = groups.size();
+        inputs = inputList.stream().mapToInt(Integer::intValue).toArray();
+
+        transitionOffsets = new int[groups.size() + 1];
+        targets = new int[transitionCount];
+        outputs = new int[transitionCount];
+        aliasProbabilities = new double[transitionCount];
+        aliases = new int[transitionCount];
+        int offset = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            transitionOffsets[g] = offset;
+            List<DotModel.Transition> group = groups.get(g);
+            double[] probabilities = new double[group.size()];
+            for (int i = 0; i < group.size(); i++) {
+                DotModel.Transition t = group.get(i);
+                targets[offset + i] = t.target;
+                outputs[offset + i] = symbolId(symbolIds, t.output);
+                probabilities[i] = t.probability;
+            }
+            buildAliasTable(probabilities, offset);
+            offset += group.size();
+        }
+        transitionOffsets[groups.size()] = offset;
+
+        symbols = new ArrayList<>(symbolIds.keySet());
+        symbolBytes = new byte[symbols.size()][];
+        for (int i = 0; i < symbols.size(); i++)
+            symbolBytes[i] = symbols.get(i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param model model learned by Alergia
+     */
+    public TraceGenerator(LearnedModel model){
+        this(DotModel.of(model));
+    }
+
+    private static int symbolId(Map<String, Integer> symbolIds, String symbol){
+        return symbolIds.computeIfAbsent(symbol, k -> symbolIds.size());
+    }
+
+    /**
+     * Builds the alias table of a group with Vose's method.
+     * @param probabilities probabilities of transitions of the group, normalized if they do not sum up to 1
+     * @param offset index of the first transition of the group
+     */
+    private void buildAliasTable(double[] probabilities, int offset){
+        int n = probabilities.length;
+        double sum = 0;
+        for (double p : probabilities)
+            sum += p;
+
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallSize = 0, largeSize = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = probabilities[i] * n / sum;
+            if (scaled[i] < 1)
+                small[smallSize++] = i;
+            else
+                large[largeSize++] = i;
+        }
+        while (smallSize > 0 && largeSize > 0) {
+            int s = small[--smallSize];
+            int l = large[--largeSize];
+            aliasProbabilities[offset + s] = scaled[s];
+            aliases[offset + s] = l;
+            scaled[l] += scaled[s] - 1;
+            if (scaled[l] < 1)
+                small[smallSize++] = l;
+            else
+                large[largeSize++] = l;
+        }
+        // remaining entries are 1 up to rounding errors
+        while (largeSize > 0)
+            aliasProbabilities[offset + large[--largeSize]] = 1;
+        while (smallSize > 0)
+            aliasProbabilities[offset + small[--smallSize]] = 1;
+    }
+
+    /**
+     * Generates samples and writes them to a file.
+     * @param path path of the output file
+     * @param traceCount number of samples
+     * @param maxLength maximal number of steps of a sample, number of steps is uniformly chosen from [1, maxLength]
+     * @param seed seed of the random generator
+     * @param parallelism number of threads generating samples
+     * @param binary true to write the binary trace format, false to write text
+     */
+    public void generate(String path, long traceCount, int maxLength, long seed, int parallelism, boolean binary)
+            throws IOException {
+        if (maxLength < 1 || traceCount < 0 || parallelism < 1)
+            throw new IllegalArgumentException("Number of samples must be non-negative, and length and " +
+                    "parallelism must be positive.");
+        SplittableRandom random = new SplittableRandom(seed);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(path)), 1 << 16)) {
+            if (binary)
+                BinaryTraceFormat.writeHeader(out, symbols);
+
+            ArrayDeque<Future<ByteBlock>> pending = new ArrayDeque<>();
+            long blockCount = (traceCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            for (long block = 0; block < blockCount || !pending.isEmpty(); ) {
+                while (block < blockCount && pending.size() < 2 * parallelism) {
+                    int size = (int) Math.min(BLOCK_SIZE, traceCount - block * BLOCK_SIZE);
+                    SplittableRandom blockRandom = random.split();
+                    pending.add(executor.submit(() -> generateBlock(size, maxLength, blockRandom, binary)));
+                    block++;
+                }
+                ByteBlock bytes = pending.poll().get();
+                out.write(bytes.buffer, 0, bytes.size);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sample generation was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sample generation failed.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generates a block of samples, encoded as text or binary samples.
+     */
+    private ByteBlock generateBlock(int size, int maxLength, SplittableRandom random, boolean binary){
+        // samples have (maxLength + 1) / 2 steps on average, of at most two symbols of a few bytes each
+        long expectedBytes = (long) size * (maxLength + 1) * 4;
+        ByteBlock block = new ByteBlock((int) Math.min(expectedBytes, MAX_INITIAL_BLOCK_BYTES));
+        int[] sample = new int[2 * maxLength + 1];
+        for (int n = 0; n < size; n++) {
+            int length = 0;
+            int state = initialState;
+            if (modelType != ModelType.SMM)
+                sample[length++] = stateOutputs[state];
+
+            int steps = 1 + random.nextInt(maxLength);
+            for (int step = 0; step < steps; step++) {
+                int inputCount = inputOffsets[state + 1] - inputOffsets[state];
+                if (inputCount == 0)
+                    break;
+                int group = inputOffsets[state] + (inputCount == 1 ? 0 : random.nextInt(inputCount));
+                int offset = transitionOffsets[group];
+                int i = offset + random.nextInt(transitionOffsets[group + 1] - offset);
+                int transition = random.nextDouble() < aliasProbabilities[i] ? i : offset + aliases[i];
+
+                if (modelType != ModelType.MC)
+                    sample[length++] = inputs[group];
+                sample[length++] = outputs[transition];
+                state = targets[transition];
+            }
+            if (length == 0)
+                continue;
+
+            if (binary) {
+                block.writeVarint(length);
+                for (int j = 0; j < length; j++)
+                    block.writeVarint(sample[j]);
+            } else {
+                for (int j = 0; j < length; j++) {
+                    if (j > 0)
+                        block.write((byte) ',');
+                    block.write(symbolBytes[sample[j]]);
+                }
+                block.write((byte) '\n');
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Growable byte array.
+     */
+    private static final class ByteBlock {
+        byte[] buffer;
+        int size = 0;
+
+        ByteBlock(int capacity){
+            buffer = new byte[Math.max(capacity, 64)];
+        }
+
+        private void ensureCapacity(int extra){
+            if (size + extra > buffer.length) {
+                long capacity = Math.max(size + extra, buffer.length * 2L);
+                buffer = Arrays.copyOf(buffer, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+            }
+        }
+
+        void write(byte b){
+            ensureCapacity(1);
+            buffer[size++] = b;
+        }
+
+        void write(byte[] bytes){
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarint(int value){
+            ensureCapacity(5);
+            size = BinaryTraceFormat.putVarint(buffer, size, value);
+        }
+    }
+
+    /**
+     * @param args argument list defined in helpDisplayMessage
+     */
+    public static void main(String[] args) {
+        String modelPath = null, output = null;
+        ModelType type = null;
+        long traceCount = -1, seed = 0;
+        int maxLength = 10, parallelism = 1;
+        boolean binary = false;
+
+        HashSet<String> argNames = new HashSet<>(Arrays.asList("-model", "-type", "-output", "-traces", "-length",
+                "-seed", "-threads", "-binary"));
+        if(args.length == 0 || args[0].equals("-help") || args[0].equals("-h") || args[0].equals("--help")){
+            System.out.println(helpDisplayMessage);
+            System.exit(0);
+        }
+        try {
+            for (int i = 0; i < args.length - 1; i += 2) {
+                if (!argNames.contains(args[i])) {
+                    System.out.println("Unrecognized option '" + args[i] + "'.\nRun Use -help to see all arguments.");
+                    System.exit(1);
+                }
+                switch (args[i]) {
+                    case "-model": modelPath = args[i + 1]; break;
+                    case "-type": type = ModelType.valueOf(args[i + 1].toUpperCase()); break;
+                    case "-output": output = args[i + 1]; break;
+                    case "-traces": traceCount = Long.parseLong(args[i + 1]); break;
+                    case "-length": maxLength = Integer.parseInt(args[i + 1]); break;
+                    case "-seed": seed = Long.parseLong(args[i + 1]); break;
+                    case "-threads": parallelism = Integer.parseInt(args[i + 1]); break;
+                    case "-binary": binary = Boolean.parseBoolean(args[i + 1]); break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid argument value: " + e.getMessage() + "\nRun Use -help to see all arguments.");
+            System.exit(1);
+        }
+        if (modelPath == null || type == null || output == null || traceCount < 0) {
+            System.out.println("Arguments -model, -type, -output, and -traces are mandatory. For more details use -h option.");
+            System.exit(1);
+        }
+
+        try {
+            double start = System.currentTimeMillis();
+            TraceGenerator generator = new TraceGenerator(DotModel.read(modelPath, type));
+            generator.generate(output, traceCount, maxLength, seed, parallelism, binary);
+            double timeElapsed = System.currentTimeMillis() - start;
+            System.out.println("Generated " + traceCount + " samples in " + String.format("%.2f", timeElapsed / 1000) + " seconds.");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("jAlergia Error: Samples could not be generated.");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
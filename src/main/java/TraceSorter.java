@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts samples and collapses duplicates into (sample, multiplicity) pairs, which are inserted in a FptaBuilder
+ * in sorted order, so that each sample shares the path of its common prefix with the previous one.
+ * Samples are buffered in memory, where duplicates are found with a hash table as they arrive; once the buffer of
+ * distinct samples exceeds the memory limit, it is sorted and written to a temporary run file, and runs are merged
+ * while inserting. Samples are ordered lexicographically by symbol ids, which is sufficient for sharing prefixes.
+ */
+class TraceSorter implements SampleSink {
+    // memory limit used for out-of-core FPTAs if none is given
+    static final long DEFAULT_MEMORY = 256L << 20;
+
+    private final long memoryLimit;
+    // samples encoded as [length, symbols...] records, starting at starts[i]
+    private int[] data = new int[1 << 16];
+    private int dataSize = 0;
+    private int[] starts = new int[1 << 12];
+    private int[] multiplicities = new int[1 << 12];
+    private int count = 0;
+    // open addressing table of record indices + 1, 0 marks an empty slot
+    private int[] table = new int[1 << 13];
+    private final List<Path> runs = new ArrayList<>();
+
+    /**
+     * @param memoryLimit number of bytes of buffered samples, after which they are written to a run file
+     */
+    public TraceSorter(long memoryLimit){
+        this.memoryLimit = Math.max(memoryLimit, 1 << 16);
+    }
+
+    /**
+     * Reads the input file, sorts its samples and inserts them in the builder.
+     * @param path path to text or binary input file
+     * @param builder builder receiving samples
+     * @param memoryLimit number of bytes of buffered samples, after which they are written to a run file
+     */
+    public static void read(String path, FptaBuilder builder, long memoryLimit) throws IOException {
+        TraceSorter sorter = new TraceSorter(memoryLimit);
+        try {
+            if (BinaryTraceFormat.isBinary(path))
+                BinaryTraceFormat.read(path, builder.getAlphabet(), sorter);
+            else
+                MappedTraceReader.read(path, builder.getAlphabet(), sorter, builder.getParallelism());
+            sorter.insertInto(builder);
+        } finally {
+            sorter.deleteRuns();
+        }
+    }
+
+    @Override
+    public synchronized void addSample(int[] symbols, int offset, int length){
+        append(symbols, offset, length);
+    }
+
+    @Override
+    public synchronized void addSamples(int[] batch, int size){
+        int position = 0;
+        while (position < size) {
+            int length = batch[position];
+            append(batch, position + 1, length);
+            position += length + 1;
+        }
+    }
+
+    private void append(int[] symbols, int offset, int length){
+        int hash = hash(symbols, offset, length);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (int record; (record = table[slot]) != 0; slot = (slot + 1) & mask) {
+            if (equals(starts[record - 1], symbols, offset, length)) {
+                multiplicities[record - 1]++;
+                return;
+            }
+        }
+
+        if ((dataSize + length + 1 + 2L * count + table.length) * Integer.BYTES > memoryLimit && count > 0) {
+            try {
+                writeRun();
+            } catch (IOException e) {
+                throw new AlergiaException("Sorted samples could not be written to a temporary file.", e);
+            }
+        }
+        if (dataSize + length + 1 > data.length)
+            data = Arrays.copyOf(data, Math.max(dataSize + length + 1, data.length * 2));
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            multiplicities = Arrays.copyOf(multiplicities, count * 2);
+        }
+        starts[count] = dataSize;
+        multiplicities[count] = 1;
+        count++;
+        data[dataSize++] = length;
+        System.arraycopy(symbols, offset, data, dataSize, length);
+        dataSize += length;
+
+        if (count * 2 > table.length)
+            rehash(table.length * 2);
+        else
+            insertIntoTable(count - 1, hash);
+    }
+
+    private void insertIntoTable(int record, int hash){
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = record + 1;
+    }
+
+    private void rehash(int capacity){
+        table = new int[capacity];
+        for (int i = 0; i < count; i++)
+            insertIntoTable(i, hash(data, starts[i] + 1, data[starts[i]]));
+    }
+
+    private boolean equals(int start, int[] symbols, int offset, int length){
+        if (data[start] != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (data[start + 1 + i] != symbols[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(int[] symbols, int offset, int length){
+        int h = length;
+        for (int i = offset; i < offset + length; i++)
+            h = h * 31 + symbols[i];
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Inserts all samples in sorted order, each distinct sample once with its multiplicity.
+     */
+    public synchronized void insertInto(FptaBuilder builder) throws IOException {
+        if (runs.isEmpty()) {
+            int[] order = sort();
+            for (int i = 0; i < count; i++)
+                builder.addSample(data, starts[order[i]] + 1, data[starts[order[i]]], multiplicities[order[i]]);
+            return;
+        }
+
+        writeRun();
+        data = null;
+        starts = null;
+        multiplicities = null;
+        table = null;
+        PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> compare(a.record, 0, b.record, 0));
+        try {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            int[] current = new int[64];
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                int length = reader.record[0];
+                if (current.length < length + 1)
+                    current = new int[Math.max(length + 1, current.length * 2)];
+                System.arraycopy(reader.record, 0, current, 0, length + 1);
+                int multiplicity = 0;
+                while (reader != null && compare(reader.record, 0, current, 0) == 0) {
+                    multiplicity += reader.multiplicity;
+                    if (reader.next())
+                        queue.add(reader);
+                    else
+                        reader.close();
+                    reader = queue.poll();
+                }
+                if (reader != null)
+                    queue.add(reader);
+                builder.addSample(current, 1, length, multiplicity);
+            }
+        } finally {
+            for (RunReader reader : queue)
+                reader.close();
+        }
+    }
+
+    /**
+     * Sorts buffered samples and writes them as a run of [multiplicity, length, symbols...] records.
+     */
+    private void writeRun() throws IOException {
+        int[] order = sort();
+        Path run = Files.createTempFile("jalergia", ".run");
+        runs.add(run);
+        try (BinaryTraceFormat.VarintOutput out = new BinaryTraceFormat.VarintOutput(Files.newOutputStream(run))) {
+            for (int i = 0; i < count; i++) {
+                int start = starts[order[i]];
+                out.writeVarint(multiplicities[order[i]]);
+                for (int k = start; k <= start + data[start]; k++)
+                    out.writeVarint(data[k]);
+            }
+        }
+        dataSize = 0;
+        count = 0;
+        table = new int[1 << 13];
+    }
+
+    private void deleteRuns() throws IOException {
+        for (Path run : runs)
+            Files.deleteIfExists(run);
+        runs.clear();
+    }
+
+    /**
+     * Merge sort of record indices, which does not box them.
+     * @return indices of distinct records in sorted order
+     */
+    private int[] sort(){
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        int[] buffer = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count - width; low += 2 * width) {
+                int mid = low + width, high = Math.min(low + 2 * width, count);
+                if (compareRecords(order[mid - 1], order[mid]) <= 0)
+                    continue;
+                int i = low, j = mid, k = low;
+                while (i < mid && j < high)
+                    buffer[k++] = compareRecords(order[i], order[j]) <= 0 ? order[i++] : order[j++];
+                while (i < mid)
+                    buffer[k++] = order[i++];
+                System.arraycopy(buffer, low, order, low, k - low);
+            }
+        }
+        return order;
+    }
+
+    private int compareRecords(int a, int b){
+        return compare(data, starts[a], data, starts[b]);
+    }
+
+    /**
+     * Compares [length, symbols...] records lexicographically by symbols, a prefix comes before longer samples.
+     */
+    private static int compare(int[] a, int startA, int[] b, int startB){
+        int lengthA = a[startA], lengthB = b[startB];
+        int length = Math.min(lengthA, lengthB);
+        for (int i = 1; i <= length; i++) {
+            if (a[startA + i] != b[startB + i])
+                return Integer.compare(a[startA + i], b[startB + i]);
+        }
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    /**
+     * Reads records of a run file one at a time.
+     */
+    private static final class RunReader implements AutoCloseable {
+        private final BinaryTraceFormat.VarintInput in;
+        int[] record = new int[64];
+        int multiplicity;
+
+        RunReader(Path run) throws IOException {
+            in = new BinaryTraceFormat.VarintInput(Files.newInputStream(run));
+        }
+
+        boolean next() throws IOException {
+            if (in.atEnd())
+                return false;
+            multiplicity = in.readVarint();
+            int length = in.readVarint();
+            if (record.length < length + 1)
+                record = new int[Math.max(length + 1, record.length * 2)];
+            record[0] = length;
+            for (int i = 1; i <= length; i++)
+                record[i] = in.readVarint();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
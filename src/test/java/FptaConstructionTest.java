@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that models learned with parallel, deduplicated, out-of-core and incremental FPTA construction are
+ * identical to models learned by the original sequential implementation, which are kept in
+ * src/test/resources/models. Run by "gradle check".
+ */
+public class FptaConstructionTest {
+    private static final String[][] INPUTS = {
+            {"mdpData_size_10", "MDP"},
+            {"mdpData_size_20", "MDP"},
+            {"smmData_size_10", "SMM"},
+            {"smmData_size_30", "SMM"},
+            {"mcData_size_5", "MC"},
+            {"mcData_size_10", "MC"}};
+    private static final double EPS = 0.05;
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("jalergiaTest");
+        try {
+            for (String[] input : INPUTS) {
+                String path = "sampleFiles/" + input[0] + ".txt";
+                ModelType type = ModelType.valueOf(input[1]);
+                Path expected = Paths.get("src/test/resources/models", input[0] + ".dot");
+
+                Alergia sequential = new Alergia(directory.resolve(input[0] + "_sequential").toString());
+                sequential.runAlergia(path, type, EPS);
+                assertSameFile(expected, directory.resolve(input[0] + "_sequential.dot"));
+
+                Alergia threads = new Alergia(directory.resolve(input[0] + "_threads").toString());
+                threads.setParallelism(4);
+                threads.runAlergia(path, type, EPS);
+                assertSameFile(expected, directory.resolve(input[0] + "_threads.dot"));
+
+                // smallest sort memory, so that sorted runs are written and merged
+                Alergia dedup = new Alergia(directory.resolve(input[0] + "_dedup").toString());
+                dedup.setSortMemory(1);
+                dedup.runAlergia(path, type, EPS);
+                assertSameFile(expected, directory.resolve(input[0] + "_dedup.dot"));
+
+                Alergia outOfCore = new Alergia(directory.resolve(input[0] + "_outOfCore").toString());
+                outOfCore.setOutOfCore(16);
+                outOfCore.setParallelism(4);
+                outOfCore.runAlergia(path, type, EPS);
+                assertSameFile(expected, directory.resolve(input[0] + "_outOfCore.dot"));
+
+                List<List<String>> samples = Parser.parseFile(path);
+                IncrementalAlergia incremental = new IncrementalAlergia(type, EPS);
+                incremental.addSamples(samples.subList(0, samples.size() / 2));
+                incremental.relearn();
+                incremental.addSamples(samples.subList(samples.size() / 2, samples.size()));
+                incremental.relearn().save(directory.resolve(input[0] + "_incremental").toString());
+                assertSameFile(expected, directory.resolve(input[0] + "_incremental.dot"));
+            }
+            System.out.println("FPTA construction variants passed.");
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void assertSameFile(Path expected, Path actual) throws IOException {
+        check(Arrays.equals(Files.readAllBytes(expected), Files.readAllBytes(actual)),
+                actual.getFileName() + " differs from " + expected.getFileName());
+    }
+
+    private static void check(boolean condition, String message){
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that models learned from an FPTA snapshot are identical to models learned from the input file the
+ * snapshot was constructed from, for trees saved and loaded on the heap and out of core. Run by "gradle check".
+ */
+public class FptaSnapshotTest {
+    private static final String[][] INPUTS = {
+            {"sampleFiles/mdpData_size_10.txt", "MDP"},
+            {"sampleFiles/smmData_size_10.txt", "SMM"},
+            {"sampleFiles/mcData_size_5.txt", "MC"}};
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("jalergiaTest");
+        try {
+            for (String[] input : INPUTS) {
+                ModelType type = ModelType.valueOf(input[1]);
+                for (int cacheSize : new int[]{0, 16}) {
+                    String name = type.name().toLowerCase() + "_" + cacheSize;
+                    String snapshot = directory.resolve(name + ".fpta").toString();
+
+                    Alergia fromFile = new Alergia(directory.resolve(name + "_file").toString());
+                    fromFile.setSnapshotLocation(snapshot);
+                    fromFile.setOutOfCore(cacheSize);
+                    fromFile.runAlergia(input[0], type, 0.05);
+
+                    Alergia fromSnapshot = new Alergia(directory.resolve(name + "_snapshot").toString());
+                    fromSnapshot.setOutOfCore(cacheSize);
+                    fromSnapshot.runAlergia(snapshot, type, 0.05);
+                    assertSameFile(directory.resolve(name + "_file.dot"), directory.resolve(name + "_snapshot.dot"));
+
+                    List<SweepResult> results = new Alergia(directory.resolve(name + "_sweep").toString())
+                            .runAlergiaSweep(snapshot, type, Arrays.asList(0.05, 0.1));
+                    assertSameFile(directory.resolve(name + "_file.dot"),
+                            directory.resolve(name + "_sweep_eps_0.05.dot"));
+                    check(results.size() == 2, "sweep over snapshot of " + name + " learned " + results.size() +
+                            " models");
+
+                    // limits are applied to the loaded tree as to samples of the input file
+                    Alergia limitedFile = new Alergia(directory.resolve(name + "_limited_file").toString());
+                    limitedFile.setFptaLimits(3, 5, 0);
+                    limitedFile.runAlergia(input[0], type, 0.05);
+                    Alergia limitedSnapshot = new Alergia(directory.resolve(name + "_limited_snapshot").toString());
+                    limitedSnapshot.setFptaLimits(3, 5, 0);
+                    limitedSnapshot.setOutOfCore(cacheSize);
+                    limitedSnapshot.runAlergia(snapshot, type, 0.05);
+                    assertSameFile(directory.resolve(name + "_limited_file.dot"),
+                            directory.resolve(name + "_limited_snapshot.dot"));
+
+                    new AlergiaLearner(type).learn(snapshot).save(directory.resolve(name + "_learner").toString());
+                    assertSameFile(directory.resolve(name + "_file.dot"), directory.resolve(name + "_learner.dot"));
+                }
+            }
+            System.out.println("FPTA snapshot round trips passed.");
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator)
+                    Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void assertSameFile(Path expected, Path actual) throws IOException {
+        check(Arrays.equals(Files.readAllBytes(expected), Files.readAllBytes(actual)),
+                actual.getFileName() + " differs from " + expected.getFileName());
+    }
+
+    private static void check(boolean condition, String message){
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}